@@ -2,10 +2,25 @@ package faculty;
 
 import com.sun.source.tree.Tree;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class OperationNotAllowedException extends Exception {
 	public OperationNotAllowedException(String message) {
@@ -15,17 +30,16 @@ class OperationNotAllowedException extends Exception {
 
 class Course {
 	String name;
-	int grade;
 	IntSummaryStatistics iss;
 	
-	public Course(String name, int grade) {
+	public Course(String name) {
 		this.name = name;
-		this.grade = grade;
+		iss = new IntSummaryStatistics();
 	}
 	
-	public Course(String name) {
+	public Course(String name, IntSummaryStatistics iss) {
 		this.name = name;
-		iss = new IntSummaryStatistics();
+		this.iss = iss;
 	}
 	
 	public void addGrade(int grade){
@@ -46,101 +60,289 @@ class Course {
 	}
 }
 
-class Term {
-	int number;
-	List<Course> courses;
+// one dictionary per faculty; writers take the monitor, readers only follow the volatile array
+class CourseNames {
+	private final Map<String, Integer> ids;
+	private volatile String[] names;
+	private int size;
 	
-	public Term(int number) {
-		this.number = number;
-		courses = new ArrayList<>();
+	public CourseNames() {
+		ids = new ConcurrentHashMap<>();
+		names = new String[16];
 	}
 	
-	public void addCourse(Course c) {
-		courses.add(c);
-	}
-	
-	public double getAverageGrade() {
-		return courses.stream().mapToInt(i -> i.grade).average().orElse(5.0);
+	int idOf(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(name);
+			if (id != null) {
+				return id;
+			}
+			if (size > 0xFFFF) {
+				throw new IllegalStateException("Too many distinct courses");
+			}
+			String[] current = size == names.length ? Arrays.copyOf(names, size * 2) : names;
+			current[size] = name;
+			// the volatile write publishes the new slot before the id becomes visible
+			names = current;
+			ids.put(name, size);
+			return size++;
+		}
 	}
 	
-	public int getPassedCourses() {
-		return (int) courses.stream().filter(i -> i.grade >= 5).mapToInt(i -> i.grade).count();
+	String nameOf(int id) {
+		return names[id];
 	}
 }
 
 class Student {
 	String id;
 	int yearsOfStudies;
-	Map<Integer, Term> terms;
+	// slot (term - 1) * 3 + i holds the i-th course of a term, as an interned course id and a grade
+	short[] courseIds;
+	byte[] grades;
+	byte[] termCounts;
+	int passedCourses;
+	int gradeSum;
+	int gradeCount;
+	CourseNames courseNames;
 	
-	public Student(String id, int yearsOfStudies) {
+	public Student(String id, int yearsOfStudies, CourseNames courseNames) {
 		this.id = id;
 		this.yearsOfStudies = yearsOfStudies;
-		terms = new HashMap<>();
-		for (int i = 1; i <= yearsOfStudies * 2; i++) {
-			terms.put(i, new Term(i));
-		}
+		this.courseNames = courseNames;
+		int termsCount = Math.max(0, yearsOfStudies * 2);
+		courseIds = new short[termsCount * 3];
+		grades = new byte[termsCount * 3];
+		termCounts = new byte[termsCount];
 	}
 	
 	public void addGrade(String courseName, int grade, int term) throws OperationNotAllowedException {
-		if (! terms.containsKey(term)) {
+		if (term < 1 || term > termCounts.length) {
 			throw new OperationNotAllowedException("Term " + term + " is not possible for student with ID " + id);
 		}
-		if (terms.get(term).courses.size() == 3) {
+		if (termCounts[term - 1] == 3) {
 			throw new OperationNotAllowedException("Student " + id + " already has 3 grades in term " + term);
 		}
-		terms.get(term).addCourse(new Course(courseName, grade));
-		
+		if (grade != (byte) grade) {
+			throw new OperationNotAllowedException("Grade " + grade + " is not valid for student with ID " + id);
+		}
+		int slot = (term - 1) * 3 + termCounts[term - 1];
+		courseIds[slot] = (short) courseNames.idOf(courseName);
+		grades[slot] = (byte) grade;
+		termCounts[term - 1]++;
+		gradeSum += grade;
+		gradeCount++;
+		if (grade >= 5) {
+			passedCourses++;
+		}
 	}
 	
 	public double getAverageGrade() {
-		return terms.values().stream().flatMap(i -> i.courses.stream()).mapToInt(i -> i.grade).average().orElse(5.0);
+		return gradeCount == 0 ? 5.0 : (double) gradeSum / gradeCount;
+	}
+	
+	public int getCourseCount(int term) {
+		return termCounts[term - 1];
 	}
 	
 	public double getAverageGrade(int term) {
-		return terms.get(term).getAverageGrade();
+		int count = termCounts[term - 1];
+		if (count == 0) {
+			return 5.0;
+		}
+		int sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += grades[(term - 1) * 3 + i];
+		}
+		return (double) sum / count;
+	}
+	
+	public void writeReport(Writer writer) throws IOException {
+		writer.write("Student: " + id + "\n");
+		for (int term = 1; term <= termCounts.length; term++) {
+			writer.write("Term " + term + "\n");
+			writer.write("Courses: " + getCourseCount(term) + "\n");
+			writer.write(String.format("Average grade for term: %.2f\n", getAverageGrade(term)));
+		}
+		writer.write(String.format("Average grade: %.2f\n", getAverageGrade())); // > 0 ? getAverageGrade() : 5.00
+		
+		writer.write("Courses attended: ");
+		String[] names = new String[gradeCount];
+		int n = 0;
+		for (int term = 1; term <= termCounts.length; term++) {
+			for (int i = 0; i < termCounts[term - 1]; i++) {
+				names[n++] = courseNames.nameOf(courseIds[(term - 1) * 3 + i] & 0xFFFF);
+			}
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) {
+				writer.write(",");
+			}
+			writer.write(names[i]);
+		}
 	}
 	
 	@Override
 	public String toString() {
-		StringBuilder sb = new StringBuilder();
-		
-		sb.append("Student: ").append(id).append("\n");
-		terms.forEach((key, value) -> {
-			sb.append("Term ").append(key).append("\n");
-			sb.append("Courses: ").append(value.courses.size()).append("\n");
-			sb.append(String.format("Average grade for term: %.2f\n", getAverageGrade(key)));
-		});
-		sb.append(String.format("Average grade: %.2f\n", getAverageGrade())); // > 0 ? getAverageGrade() : 5.00
-		
-		
-		sb.append("Courses attended: ")
-				.append(terms
-						.values().stream()
-						.flatMap(i -> i.courses.stream())
-						.map(i -> i.name).sorted(Comparator.naturalOrder()).collect(Collectors.joining(",")));
-		
-		return sb.toString();
+		StringWriter sw = new StringWriter();
+		try {
+			writeReport(sw);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString();
 	}
 	
 	public int getAllPassedCourses() {
-		return terms.values().stream().mapToInt(Term::getPassedCourses).sum();
+		return passedCourses;
+	}
+	
+	public boolean hasGraduated() {
+		if (yearsOfStudies == 3) {
+			return gradeCount == 18;
+		} else {
+			return gradeCount == 24;
+		}
+	}
+}
+
+class GraduationLog {
+	static final int DEFAULT_MEMORY_LIMIT = 1024;
+	
+	int memoryLimit;
+	List<String> buffer;
+	Path spillFile;
+	int spilled;
+	
+	public GraduationLog() {
+		this(DEFAULT_MEMORY_LIMIT);
+	}
+	
+	public GraduationLog(int memoryLimit) {
+		this.memoryLimit = memoryLimit;
+		buffer = new ArrayList<>();
+	}
+	
+	public void add(String line) {
+		buffer.add(line);
+		if (buffer.size() >= memoryLimit) {
+			spill();
+		}
+	}
+	
+	// older entries are appended to a temporary file so only the newest ones stay in memory
+	private void spill() {
+		try {
+			if (spillFile == null) {
+				spillFile = Files.createTempFile("faculty-logs", ".log");
+				spillFile.toFile().deleteOnExit();
+			}
+			Files.write(spillFile, buffer, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		spilled += buffer.size();
+		buffer.clear();
+	}
+	
+	public int size() {
+		return spilled + buffer.size();
+	}
+	
+	public void writeTo(Writer writer) throws IOException {
+		boolean first = true;
+		if (spillFile != null) {
+			try (BufferedReader br = Files.newBufferedReader(spillFile)) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (! first) {
+						writer.write("\n");
+					}
+					writer.write(line);
+					first = false;
+				}
+			}
+		}
+		for (String line : buffer) {
+			if (! first) {
+				writer.write("\n");
+			}
+			writer.write(line);
+			first = false;
+		}
+	}
+}
+
+class GradeRecord {
+	int index;
+	String studentId;
+	int term;
+	String courseName;
+	int grade;
+	String error;
+	boolean graduated;
+	
+	public GradeRecord(int index, String studentId, int term, String courseName, int grade) {
+		this.index = index;
+		this.studentId = studentId;
+		this.term = term;
+		this.courseName = courseName;
+		this.grade = grade;
+	}
+	
+	// a malformed line becomes a record that only carries its error, so one bad line does not abort the import
+	public static GradeRecord parse(int index, String line) { // [student_id] [term] [course_name] [grade]
+		String[] parts = line.trim().split("\\s+");
+		if (parts.length == 4) {
+			try {
+				return new GradeRecord(index, parts[0], Integer.parseInt(parts[1]), parts[2], Integer.parseInt(parts[3]));
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+		}
+		GradeRecord record = new GradeRecord(index, null, 0, null, 0);
+		record.error = String.format("Line %d is not a valid grade record: %s", index + 1, line.trim());
+		return record;
 	}
 }
 
 class Faculty {
+	static final Comparator<Student> RANKING = Comparator
+			.comparingInt(Student::getAllPassedCourses)
+			.thenComparingDouble(Student::getAverageGrade)
+			.thenComparing((Student s) -> s.id).reversed();
+	static final Comparator<Course> COURSE_RANKING = Comparator
+			.comparingLong(Course::getStudentCount)
+			.thenComparingDouble(Course::getAverageGrade).thenComparing(i -> i.name);
+	
 	Map<String, Student> students;
-	List<String> logs;
+	NavigableSet<Student> ranking;
+	GraduationLog logs;
 	Map<String, Course> courses;
+	NavigableSet<Course> courseRanking;
+	CourseNames courseNames;
 	
 	public Faculty() {
 		students = new TreeMap<>();
-		logs = new ArrayList<>();
+		ranking = new TreeSet<>(RANKING);
+		logs = new GraduationLog();
 		courses = new HashMap<>();
+		courseRanking = new TreeSet<>(COURSE_RANKING);
+		courseNames = new CourseNames();
 	}
 	
 	void addStudent(String id, int yearsOfStudies) {
-		students.put(id, new Student(id, yearsOfStudies));
+		Student student = new Student(id, yearsOfStudies, courseNames);
+		Student previous = students.put(id, student);
+		if (previous != null) {
+			ranking.remove(previous);
+		}
+		ranking.add(student);
 	}
 	
 	void addGradeToStudent(String studentId, int term, String courseName, int grade) throws OperationNotAllowedException {
@@ -148,35 +350,121 @@ class Faculty {
 			return;
 		}
 		Student student = students.get(studentId);
-		student.addGrade(courseName, grade, term);
+		// the ranking key changes with the grade, so the student is taken out and put back around the update
+		ranking.remove(student);
+		try {
+			student.addGrade(courseName, grade, term);
+		} finally {
+			ranking.add(student);
+		}
 		
-		courses.putIfAbsent(courseName, new Course(courseName));
-		courses.get(courseName).addGrade(grade);
+		addGradeToCourse(courseName, grade);
 		
 		if (checkGraduation(student)) {
-			logs.add(String.format("Student with ID %s graduated with average grade %.2f in %d years.",
-					student.id, student.getAverageGrade(), student.yearsOfStudies));
-			students.remove(studentId);
+			graduate(student);
 		}
 	}
 	
-	String getFacultyLogs() {
-		StringBuilder sb = new StringBuilder();
-		sb.append(String.join("\n", logs));
+	private void addGradeToCourse(String courseName, int grade) {
+		Course course = courses.computeIfAbsent(courseName, Course::new);
+		courseRanking.remove(course);
+		course.addGrade(grade);
+		courseRanking.add(course);
+	}
+	
+	private void graduate(Student student) {
+		logs.add(String.format("Student with ID %s graduated with average grade %.2f in %d years.",
+				student.id, student.getAverageGrade(), student.yearsOfStudies));
+		students.remove(student.id);
+		ranking.remove(student);
+	}
+	
+	List<String> importGrades(Path path) throws IOException {
+		try (Stream<String> lines = Files.lines(path)) {
+			return importGrades(lines.collect(Collectors.toList()));
+		}
+	}
+	
+	// same result as addGradeToStudent for each line in order; returns the rejected records' messages
+	List<String> importGrades(List<String> lines) {
+		List<GradeRecord> records = IntStream.range(0, lines.size()).parallel()
+				.filter(i -> ! lines.get(i).isBlank())
+				.mapToObj(i -> GradeRecord.parse(i, lines.get(i)))
+				.collect(Collectors.toList());
+		
+		// taken before applying, which sets error on the records it rejects
+		List<GradeRecord> malformed = records.stream().filter(r -> r.error != null).collect(Collectors.toList());
+		Map<String, List<GradeRecord>> byStudent = records.stream()
+				.filter(r -> r.error == null && students.containsKey(r.studentId))
+				.collect(Collectors.groupingBy(r -> r.studentId));
+		byStudent.keySet().forEach(id -> ranking.remove(students.get(id)));
 		
-		return sb.toString();
+		List<GradeRecord> applied = Stream.concat(malformed.stream(), byStudent.entrySet().parallelStream()
+						.flatMap(entry -> applyGrades(students.get(entry.getKey()), entry.getValue()).stream()))
+				.sorted(Comparator.comparingInt(r -> r.index))
+				.collect(Collectors.toList());
+		
+		List<String> errors = new ArrayList<>();
+		for (GradeRecord record : applied) {
+			if (record.error != null) {
+				errors.add(record.error);
+				continue;
+			}
+			addGradeToCourse(record.courseName, record.grade);
+			if (record.graduated) {
+				graduate(students.get(record.studentId));
+			}
+		}
+		byStudent.keySet().stream().map(students::get).filter(Objects::nonNull).forEach(ranking::add);
+		
+		return errors;
+	}
+	
+	private List<GradeRecord> applyGrades(Student student, List<GradeRecord> records) {
+		List<GradeRecord> applied = new ArrayList<>();
+		for (GradeRecord record : records) {
+			applied.add(record);
+			try {
+				student.addGrade(record.courseName, record.grade, record.term);
+			} catch (OperationNotAllowedException e) {
+				record.error = e.getMessage();
+				continue;
+			}
+			if (checkGraduation(student)) {
+				// later records of a graduated student are ignored, as with addGradeToStudent
+				record.graduated = true;
+				break;
+			}
+		}
+		return applied;
+	}
+	
+	String getFacultyLogs() {
+		StringWriter sw = new StringWriter();
+		try {
+			writeFacultyLogs(sw);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString();
+	}
+	
+	void writeFacultyLogs(Writer writer) throws IOException {
+		logs.writeTo(writer);
+		writer.flush();
 	}
 	
 	String getDetailedReportForStudent(String id) {
 		return students.get(id).toString();
 	}
 	
+	void writeDetailedReportForStudent(String id, Writer writer) throws IOException {
+		students.get(id).writeReport(writer);
+		writer.flush();
+	}
+	
 	void printFirstNStudents(int n) {
-		students.values().stream()
-				.sorted(Comparator
-						.comparingInt(Student::getAllPassedCourses)
-						.thenComparingDouble(Student::getAverageGrade)
-						.thenComparing(s -> s.id).reversed())
+		ranking.stream()
 				.limit(n)
 				.forEach(s -> {
 					System.out.printf("Student: %s Courses passed: %d Average grade: %.2f\n",
@@ -185,23 +473,149 @@ class Faculty {
 	}
 	
 	void printCourses() { // [course_name] [count_of_students] [average_grade]
-		Comparator<Course> courseComparator = Comparator
-				.comparingLong(Course::getStudentCount)
-				.thenComparingDouble(Course::getAverageGrade).thenComparing(i -> i.name);
-		
-		TreeSet<Course> courseTreeSet = new TreeSet<>(courseComparator);
-		
-		courseTreeSet.addAll(courses.values());
-		courseTreeSet.forEach(System.out::println);
+		courseRanking.forEach(System.out::println);
+	}
+	
+	void writeCourses(Writer writer) throws IOException {
+		for (Course course : courseRanking) {
+			writer.write(course.toString());
+			writer.write("\n");
+		}
+		writer.flush();
 	}
 	
 	public boolean checkGraduation(Student student) {
-		if (student.yearsOfStudies == 3) {
-			return student.terms.values().stream().mapToInt(i -> i.courses.size()).sum() == 18;
-		} else {
-			return student.terms.values().stream().mapToInt(i -> i.courses.size()).sum() == 24;
+		return student.hasGraduated();
+	}
+}
+
+class ConcurrentCourse {
+	String name;
+	LongAdder count;
+	LongAdder sum;
+	LongAccumulator min;
+	LongAccumulator max;
+	
+	public ConcurrentCourse(String name) {
+		this.name = name;
+		count = new LongAdder();
+		sum = new LongAdder();
+		min = new LongAccumulator(Math::min, Integer.MAX_VALUE);
+		max = new LongAccumulator(Math::max, Integer.MIN_VALUE);
+	}
+	
+	public void addGrade(int grade) {
+		sum.add(grade);
+		min.accumulate(grade);
+		max.accumulate(grade);
+		count.increment();
+	}
+	
+	public Course snapshot() {
+		return new Course(name, new IntSummaryStatistics(count.sum(), (int) min.get(), (int) max.get(), sum.sum()));
+	}
+}
+
+class ConcurrentFaculty {
+	Map<String, Student> students;
+	GraduationLog logs;
+	Map<String, ConcurrentCourse> courses;
+	// graders share the read lock so they run in parallel; reports take the write lock to see a consistent state
+	ReadWriteLock snapshotLock;
+	CourseNames courseNames;
+	
+	public ConcurrentFaculty() {
+		students = new ConcurrentSkipListMap<>();
+		logs = new GraduationLog();
+		courses = new ConcurrentHashMap<>();
+		snapshotLock = new ReentrantReadWriteLock();
+		courseNames = new CourseNames();
+	}
+	
+	void addStudent(String id, int yearsOfStudies) {
+		snapshotLock.readLock().lock();
+		try {
+			students.put(id, new Student(id, yearsOfStudies, courseNames));
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+	
+	void addGradeToStudent(String studentId, int term, String courseName, int grade) throws OperationNotAllowedException {
+		snapshotLock.readLock().lock();
+		try {
+			Student student = students.get(studentId);
+			if (student == null) {
+				return;
+			}
+			synchronized (student) {
+				// the student may have graduated (or been replaced) while this thread was waiting for the lock
+				if (students.get(studentId) != student) {
+					return;
+				}
+				student.addGrade(courseName, grade, term);
+				courses.computeIfAbsent(courseName, ConcurrentCourse::new).addGrade(grade);
+				
+				if (student.hasGraduated()) {
+					synchronized (logs) {
+						logs.add(String.format("Student with ID %s graduated with average grade %.2f in %d years.",
+								student.id, student.getAverageGrade(), student.yearsOfStudies));
+					}
+					students.remove(studentId, student);
+				}
+			}
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+	
+	String getFacultyLogs() {
+		snapshotLock.writeLock().lock();
+		try {
+			StringWriter sw = new StringWriter();
+			logs.writeTo(sw);
+			return sw.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			snapshotLock.writeLock().unlock();
 		}
 	}
+	
+	String getDetailedReportForStudent(String id) {
+		snapshotLock.writeLock().lock();
+		try {
+			return students.get(id).toString();
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+	
+	void printFirstNStudents(int n) {
+		List<Student> first;
+		snapshotLock.writeLock().lock();
+		try {
+			first = students.values().stream()
+					.sorted(Faculty.RANKING)
+					.limit(n)
+					.collect(Collectors.toList());
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+		first.forEach(s -> System.out.printf("Student: %s Courses passed: %d Average grade: %.2f\n",
+				s.id, s.getAllPassedCourses(), s.getAverageGrade()));
+	}
+	
+	void printCourses() {
+		TreeSet<Course> snapshot = new TreeSet<>(Faculty.COURSE_RANKING);
+		snapshotLock.writeLock().lock();
+		try {
+			courses.values().forEach(c -> snapshot.add(c.snapshot()));
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+		snapshot.forEach(System.out::println);
+	}
 }
 
 public class FacultyTest {
@@ -394,6 +808,152 @@ public class FacultyTest {
 			faculty.printFirstNStudents(10);
 			System.out.println("COURSES");
 			faculty.printCourses();
+		} else if (testCase == 12) {
+			System.out.println("TESTING importGrades");
+			Faculty sequential = new Faculty();
+			Faculty imported = new Faculty();
+			for (int i = 1; i <= 6; i++) {
+				sequential.addStudent("student" + i, ((i % 2) == 1 ? 3 : 4));
+				imported.addStudent("student" + i, ((i % 2) == 1 ? 3 : 4));
+			}
+			int n = sc.nextInt();
+			sc.nextLine();
+			List<String> lines = new ArrayList<>();
+			List<String> expectedErrors = new ArrayList<>();
+			for (int i = 0; i < n; i++) { // [student_id] [term] [course_name] [grade]
+				String line = sc.nextLine();
+				lines.add(line);
+				if (line.isBlank()) {
+					continue;
+				}
+				GradeRecord record = GradeRecord.parse(i, line);
+				if (record.error != null) {
+					expectedErrors.add(record.error);
+					continue;
+				}
+				try {
+					sequential.addGradeToStudent(record.studentId, record.term, record.courseName, record.grade);
+				} catch (OperationNotAllowedException e) {
+					expectedErrors.add(e.getMessage());
+				}
+			}
+			List<String> errors = imported.importGrades(lines);
+			System.out.println("ERRORS");
+			errors.forEach(System.out::println);
+			System.out.println("Same errors: " + errors.equals(expectedErrors));
+			System.out.println("Same logs: " + imported.getFacultyLogs().equals(sequential.getFacultyLogs()));
+			System.out.println("Same ranking: " + imported.ranking.stream().map(s -> s.id + " " + s.getAverageGrade()).collect(Collectors.toList())
+					.equals(sequential.ranking.stream().map(s -> s.id + " " + s.getAverageGrade()).collect(Collectors.toList())));
+			System.out.println("Same courses: " + imported.courseRanking.toString().equals(sequential.courseRanking.toString()));
+			System.out.println("LOGS");
+			System.out.println(imported.getFacultyLogs());
+			System.out.println("FIRST N STUDENTS");
+			imported.printFirstNStudents(10);
+			System.out.println("COURSES");
+			imported.printCourses();
+		} else if (testCase == 13) {
+			System.out.println("TESTING ConcurrentFaculty");
+			Faculty faculty = new Faculty();
+			ConcurrentFaculty concurrentFaculty = new ConcurrentFaculty();
+			int studentsCount = 40;
+			for (int i = 1; i <= studentsCount; i++) {
+				faculty.addStudent("student" + i, ((i % 2) == 1 ? 3 : 4));
+				concurrentFaculty.addStudent("student" + i, ((i % 2) == 1 ? 3 : 4));
+			}
+			// every third student stops a term early; the others overflow a term and run past their last one
+			List<String> expectedErrors = new ArrayList<>();
+			for (int i = 1; i <= studentsCount; i++) {
+				int terms = ((i % 2) == 1 ? 6 : 8) + ((i % 3 == 0) ? - 1 : 1);
+				for (int j = 1; j <= terms; j++) {
+					for (int k = 1; k <= 4; k++) {
+						try {
+							faculty.addGradeToStudent("student" + i, j, "course" + (j * 4 + k), (i * 7 + j * 3 + k) % 6 + 5);
+						} catch (OperationNotAllowedException e) {
+							expectedErrors.add(e.getMessage());
+						}
+					}
+				}
+			}
+			// each student's grades stay in order on one thread, while different students are graded in parallel
+			List<String> errors = Collections.synchronizedList(new ArrayList<>());
+			IntStream.rangeClosed(1, studentsCount).parallel().forEach(i -> {
+				int terms = ((i % 2) == 1 ? 6 : 8) + ((i % 3 == 0) ? - 1 : 1);
+				for (int j = 1; j <= terms; j++) {
+					for (int k = 1; k <= 4; k++) {
+						try {
+							concurrentFaculty.addGradeToStudent("student" + i, j, "course" + (j * 4 + k), (i * 7 + j * 3 + k) % 6 + 5);
+						} catch (OperationNotAllowedException e) {
+							errors.add(e.getMessage());
+						}
+					}
+				}
+			});
+			Collections.sort(errors);
+			Collections.sort(expectedErrors);
+			List<String> logs = Arrays.asList(concurrentFaculty.getFacultyLogs().split("\n"));
+			List<String> expectedLogs = Arrays.asList(faculty.getFacultyLogs().split("\n"));
+			Collections.sort(logs);
+			Collections.sort(expectedLogs);
+			TreeSet<Course> courses = new TreeSet<>(Faculty.COURSE_RANKING);
+			concurrentFaculty.courses.values().forEach(c -> courses.add(c.snapshot()));
+			System.out.println("Same errors: " + errors.equals(expectedErrors));
+			System.out.println("Same logs: " + logs.equals(expectedLogs));
+			System.out.println("Same ranking: " + concurrentFaculty.students.values().stream().sorted(Faculty.RANKING)
+					.map(s -> s.id + " " + s.getAverageGrade()).collect(Collectors.toList())
+					.equals(faculty.ranking.stream().map(s -> s.id + " " + s.getAverageGrade()).collect(Collectors.toList())));
+			System.out.println("Same courses: " + courses.toString().equals(faculty.courseRanking.toString()));
+			System.out.println("Same report: " + concurrentFaculty.getDetailedReportForStudent("student3")
+					.equals(faculty.getDetailedReportForStudent("student3")));
+			System.out.println("FIRST N STUDENTS");
+			concurrentFaculty.printFirstNStudents(5);
+			System.out.println("COURSES");
+			concurrentFaculty.printCourses();
+		} else if (testCase == 14) {
+			System.out.println("TESTING writers and spilled logs");
+			Faculty faculty = new Faculty();
+			faculty.logs = new GraduationLog(4); // small enough that most log entries go to the temporary file
+			List<String> expectedLogs = new ArrayList<>();
+			for (int i = 1; i <= 11; i++) {
+				faculty.addStudent("student" + i, 3);
+				int sum = 0;
+				int terms = (i == 11) ? 5 : 6;
+				for (int j = 1; j <= terms; j++) {
+					for (int k = 1; k <= 3; k++) {
+						int grade = (i * j + k) % 6 + 5;
+						sum += grade;
+						try {
+							faculty.addGradeToStudent("student" + i, j, "course" + (j * 3 + k), grade);
+						} catch (OperationNotAllowedException e) {
+							System.out.println(e.getMessage());
+						}
+					}
+				}
+				if (i != 11) {
+					expectedLogs.add(String.format("Student with ID %s graduated with average grade %.2f in %d years.", "student" + i, sum / 18.0, 3));
+				}
+			}
+			try {
+				StringWriter logs = new StringWriter();
+				faculty.writeFacultyLogs(logs);
+				StringWriter report = new StringWriter();
+				faculty.writeDetailedReportForStudent("student11", report);
+				StringWriter courses = new StringWriter();
+				faculty.writeCourses(courses);
+				StringBuilder expectedCourses = new StringBuilder();
+				faculty.courseRanking.forEach(c -> expectedCourses.append(c).append("\n"));
+				
+				System.out.println("Spilled: " + (faculty.logs.spillFile != null) + " Entries: " + faculty.logs.size());
+				System.out.println("Same logs: " + logs.toString().equals(String.join("\n", expectedLogs))
+						+ " " + logs.toString().equals(faculty.getFacultyLogs()));
+				System.out.println("Same report: " + report.toString().equals(faculty.getDetailedReportForStudent("student11")));
+				System.out.println("Same courses: " + courses.toString().equals(expectedCourses.toString()));
+				System.out.println("LOGS");
+				System.out.println(logs);
+				System.out.println("COURSES");
+				System.out.print(courses);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 		}
 	}
 }
@@ -1,7 +1,12 @@
 package genericcollection;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntBinaryOperator;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /*
@@ -103,52 +108,461 @@ class TwoIntegersElement implements Comparable<TwoIntegersElement>, IHasTimestam
 	}
 }
 
+class DescendingMergeIterator<T extends Comparable<T>> implements Iterator<T> {
+	private static class Head<T> {
+		T element;
+		int source;
+		Iterator<T> iterator;
+		
+		Head(T element, int source, Iterator<T> iterator) {
+			this.element = element;
+			this.source = source;
+			this.iterator = iterator;
+		}
+	}
+	
+	private final PriorityQueue<Head<T>> heap;
+	private T last;
+	
+	public DescendingMergeIterator(List<NavigableSet<T>> sources) {
+		// largest element first; on ties the earlier source wins, the rest are dropped as duplicates
+		heap = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+			int cmp = b.element.compareTo(a.element);
+			return cmp != 0 ? cmp : Integer.compare(a.source, b.source);
+		});
+		for (int i = 0; i < sources.size(); i++) {
+			Iterator<T> it = sources.get(i).descendingIterator();
+			if (it.hasNext()) {
+				heap.add(new Head<>(it.next(), i, it));
+			}
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		while (! heap.isEmpty() && last != null && heap.peek().element.compareTo(last) == 0) {
+			advance(heap.poll());
+		}
+		return ! heap.isEmpty();
+	}
+	
+	@Override
+	public T next() {
+		if (! hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Head<T> head = heap.poll();
+		last = head.element;
+		advance(head);
+		return last;
+	}
+	
+	private void advance(Head<T> head) {
+		if (head.iterator.hasNext()) {
+			head.element = head.iterator.next();
+			heap.add(head);
+		}
+	}
+}
+
 class GenericCollection<T extends Comparable<T> & IHasTimestamp> {
-	Map<String, Set<T>> collections;
+	Map<String, NavigableSet<T>> collections;
+	Map<String, NavigableMap<LocalDateTime, List<T>>> byTimestamp;
+	
+	List<Map<String, NavigableSet<T>>> dayBuckets; // index = month * 32 + day, then only the categories seen on that day
+	int[] dayCounts;
+	Map<String, Set<T>> byMonthAndDayView;
+	long[] yearCounts;
+	int firstYear;
 	
 	public GenericCollection() {
 		collections = new HashMap<>();
+		byTimestamp = new HashMap<>();
+		dayBuckets = new ArrayList<>(Collections.nCopies(13 * 32, null));
+		dayCounts = new int[13 * 32];
+		byMonthAndDayView = new TreeMap<>();
+		yearCounts = new long[0];
 	}
 	
 	public void addGenericItem(String category, T element) {
 		collections.putIfAbsent(category, new TreeSet<>());
-		collections.get(category).add(element);
+		if (collections.get(category).add(element)) {
+			byTimestamp.computeIfAbsent(category, k -> new TreeMap<>())
+					.computeIfAbsent(element.getTimestamp(), k -> new ArrayList<>())
+					.add(element);
+			addToDayBucket(category, element);
+			countYear(element.getTimestamp().getYear());
+		}
+	}
+	
+	private void addToDayBucket(String category, T element) {
+		int month = element.getTimestamp().getMonthValue();
+		int day = element.getTimestamp().getDayOfMonth();
+		int index = month * 32 + day;
+		Map<String, NavigableSet<T>> buckets = dayBuckets.get(index);
+		if (buckets == null) {
+			buckets = new HashMap<>();
+			dayBuckets.set(index, buckets);
+			byMonthAndDayView.put(String.format("%02d-%02d", month, day), new DayView(index));
+		}
+		// the element is new to its own category, so it only counts if no other category has it on this day
+		if (buckets.values().stream().noneMatch(bucket -> bucket.contains(element))) {
+			dayCounts[index]++;
+		}
+		buckets.computeIfAbsent(category, k -> new TreeSet<>()).add(element);
+	}
+	
+	// one day across all categories, merged in collections order so equal elements resolve like findAllBetween
+	private class DayView extends AbstractSet<T> {
+		final int index;
+		
+		DayView(int index) {
+			this.index = index;
+		}
+		
+		@Override
+		public Iterator<T> iterator() {
+			Map<String, NavigableSet<T>> buckets = dayBuckets.get(index);
+			List<NavigableSet<T>> sources = new ArrayList<>(buckets.size());
+			for (String category : collections.keySet()) {
+				NavigableSet<T> bucket = buckets.get(category);
+				if (bucket != null) {
+					sources.add(bucket);
+				}
+			}
+			return new DescendingMergeIterator<>(sources);
+		}
+		
+		@Override
+		public int size() {
+			return dayCounts[index];
+		}
+	}
+	
+	private void countYear(int year) {
+		if (yearCounts.length == 0) {
+			firstYear = year;
+			yearCounts = new long[1];
+		} else if (year < firstYear) {
+			long[] grown = new long[yearCounts.length + (firstYear - year)];
+			System.arraycopy(yearCounts, 0, grown, firstYear - year, yearCounts.length);
+			yearCounts = grown;
+			firstYear = year;
+		} else if (year - firstYear >= yearCounts.length) {
+			yearCounts = Arrays.copyOf(yearCounts, year - firstYear + 1);
+		}
+		yearCounts[year - firstYear]++;
 	}
 	
 	public Collection<T> findAllBetween(LocalDateTime from, LocalDateTime to) {
-		return collections.values().stream()
+		if (! from.isBefore(to)) {
+			return new TreeSet<T>(Comparator.reverseOrder());
+		}
+		// categories are visited in the same order as collections, so equal elements resolve the same way
+		return collections.keySet().stream()
+				.flatMap(c -> byTimestamp.get(c).subMap(from, false, to, false).values().stream())
 				.flatMap(Collection::stream)
-				.filter(i -> i.getTimestamp().isAfter(from) && i.getTimestamp().isBefore(to))
 				.collect(Collectors.toCollection(() -> new TreeSet<T>(Comparator.reverseOrder())
 				));
 	}
 	
-	public Collection<T> itemsFromCategories (List<String> categories){
-		return collections.keySet().stream()
-				.filter(categories::contains)
-				.flatMap(c -> collections.get(c).stream())
-				.collect(Collectors.toCollection(
-						() -> new TreeSet<T>(Comparator.reverseOrder())
-				));
+	public Iterable<T> itemsFromCategories (List<String> categories){
+		Set<String> requested = new HashSet<>(categories);
+		List<NavigableSet<T>> sources = collections.keySet().stream()
+				.filter(requested::contains)
+				.map(collections::get)
+				.collect(Collectors.toList());
+		return () -> new DescendingMergeIterator<>(sources);
 	}
 	
 	public Map<String, Set<T>> byMonthAndDay(){
-		return collections.values().stream()
+		return Collections.unmodifiableMap(byMonthAndDayView);
+	}
+	
+	public Map<Integer, Long> countByYear(){
+		Map<Integer, Long> result = new TreeMap<>();
+		for (int i = 0; i < yearCounts.length; i++) {
+			if (yearCounts[i] > 0) {
+				result.put(firstYear + i, yearCounts[i]);
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+}
+
+class ConcurrentGenericCollection<T extends Comparable<T> & IHasTimestamp> {
+	ConcurrentMap<String, NavigableSet<T>> collections;
+	ForkJoinPool pool;
+	
+	public ConcurrentGenericCollection() {
+		this(ForkJoinPool.commonPool());
+	}
+	
+	public ConcurrentGenericCollection(ForkJoinPool pool) {
+		this.pool = pool;
+		collections = new ConcurrentHashMap<>();
+	}
+	
+	public void addGenericItem(String category, T element) {
+		collections.computeIfAbsent(category, k -> new ConcurrentSkipListSet<>()).add(element);
+	}
+	
+	// a parallel stream started from inside the pool runs its tasks on that pool
+	private <R> R query(Callable<R> task) {
+		return pool.submit(task).join();
+	}
+	
+	public Collection<T> findAllBetween(LocalDateTime from, LocalDateTime to) {
+		return query(() -> collections.values().parallelStream()
 				.flatMap(Collection::stream)
-				.collect(Collectors.groupingBy(
+				.filter(i -> i.getTimestamp().isAfter(from) && i.getTimestamp().isBefore(to))
+				.collect(Collectors.toCollection(() -> new ConcurrentSkipListSet<T>(Comparator.reverseOrder())
+				)));
+	}
+	
+	public Collection<T> itemsFromCategories(List<String> categories) {
+		Set<String> requested = new HashSet<>(categories);
+		return query(() -> collections.entrySet().parallelStream()
+				.filter(entry -> requested.contains(entry.getKey()))
+				.flatMap(entry -> entry.getValue().stream())
+				.collect(Collectors.toCollection(() -> new ConcurrentSkipListSet<T>(Comparator.reverseOrder())
+				)));
+	}
+	
+	public Map<String, Set<T>> byMonthAndDay() {
+		return query(() -> collections.values().parallelStream()
+				.flatMap(Collection::stream)
+				.collect(Collectors.groupingByConcurrent(
 						element -> String.format("%02d-%02d", element.getTimestamp().getMonthValue(), element.getTimestamp().getDayOfMonth()),
-						TreeMap::new,
-						Collectors.toCollection(() -> new TreeSet<T>(Comparator.reverseOrder()))
-				));
+						ConcurrentSkipListMap::new,
+						Collectors.toCollection(() -> new ConcurrentSkipListSet<T>(Comparator.reverseOrder()))
+				)));
 	}
 	
-	public Map<Integer, Long> countByYear(){
-		return collections.values().stream().flatMap(Collection::stream)
-				.collect(Collectors.groupingBy(
+	public Map<Integer, Long> countByYear() {
+		return query(() -> collections.values().parallelStream()
+				.flatMap(Collection::stream)
+				.collect(Collectors.groupingByConcurrent(
 						i -> i.getTimestamp().getYear(),
-						TreeMap::new,
-						Collectors.summingLong(i -> 1)
-				));
+						ConcurrentSkipListMap::new,
+						Collectors.counting()
+				)));
+	}
+}
+
+interface KeyDecoder<T> {
+	T decode(long key, LocalDateTime timestamp);
+}
+
+class PrimitiveElementCollection<T extends Comparable<T> & IHasTimestamp> {
+	// rows [0, size) are sorted by key and unique; rows [size, length) are the unsorted tail added since the last read
+	static class Column {
+		long[] keys = new long[0];
+		long[] seconds = new long[0];
+		int[] nanos = new int[0];
+		int size;
+		int length;
+		int[] byTime; // row indices ordered by timestamp, rebuilt lazily after a merge
+		
+		void add(long key, LocalDateTime timestamp) {
+			if (length == keys.length) {
+				int capacity = Math.max(16, keys.length * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				seconds = Arrays.copyOf(seconds, capacity);
+				nanos = Arrays.copyOf(nanos, capacity);
+			}
+			keys[length] = key;
+			seconds[length] = timestamp.toEpochSecond(ZoneOffset.UTC);
+			nanos[length] = timestamp.getNano();
+			length++;
+		}
+		
+		void flush() {
+			if (length == size) {
+				return;
+			}
+			int pending = length - size;
+			int[] order = new int[pending];
+			for (int i = 0; i < pending; i++) {
+				order[i] = size + i;
+			}
+			// stable, so the first inserted of equal keys comes first and wins, like TreeSet.add
+			sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+			
+			long[] tailKeys = new long[pending];
+			long[] tailSeconds = new long[pending];
+			int[] tailNanos = new int[pending];
+			int m = 0;
+			for (int j = 0; j < pending; j++) {
+				int p = order[j];
+				if ((m > 0 && tailKeys[m - 1] == keys[p]) || Arrays.binarySearch(keys, 0, size, keys[p]) >= 0) {
+					continue;
+				}
+				tailKeys[m] = keys[p];
+				tailSeconds[m] = seconds[p];
+				tailNanos[m++] = nanos[p];
+			}
+			
+			// merge from the end so the sorted rows move at most once and nothing is reallocated
+			int i = size - 1, j = m - 1, k = size + m - 1;
+			while (j >= 0) {
+				if (i >= 0 && keys[i] > tailKeys[j]) {
+					keys[k] = keys[i];
+					seconds[k] = seconds[i];
+					nanos[k--] = nanos[i--];
+				} else {
+					keys[k] = tailKeys[j];
+					seconds[k] = tailSeconds[j];
+					nanos[k--] = tailNanos[j--];
+				}
+			}
+			size += m;
+			length = size;
+			byTime = null;
+		}
+		
+		int[] byTime() {
+			if (byTime == null) {
+				byTime = new int[size];
+				for (int i = 0; i < size; i++) {
+					byTime[i] = i;
+				}
+				sort(byTime, this::compareTime);
+			}
+			return byTime;
+		}
+		
+		private int compareTime(int a, int b) {
+			int cmp = Long.compare(seconds[a], seconds[b]);
+			return cmp != 0 ? cmp : Integer.compare(nanos[a], nanos[b]);
+		}
+		
+		// first position in byTime whose timestamp is after (seconds, nano), or not before it when inclusive
+		int timeBound(long second, int nano, boolean inclusive) {
+			int[] rows = byTime();
+			int lo = 0, hi = size;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int row = rows[mid];
+				int cmp = seconds[row] != second ? Long.compare(seconds[row], second) : Integer.compare(nanos[row], nano);
+				if (cmp < 0 || (cmp == 0 && ! inclusive)) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+		
+		LocalDateTime timestamp(int i) {
+			return LocalDateTime.ofEpochSecond(seconds[i], nanos[i], ZoneOffset.UTC);
+		}
+		
+		// stable merge sort of row indices, without boxing
+		static void sort(int[] rows, IntBinaryOperator comparator) {
+			int[] buffer = new int[rows.length];
+			for (int width = 1; width < rows.length; width *= 2) {
+				for (int lo = 0; lo < rows.length - width; lo += 2 * width) {
+					int mid = lo + width, hi = Math.min(lo + 2 * width, rows.length);
+					if (comparator.applyAsInt(rows[mid - 1], rows[mid]) <= 0) {
+						continue;
+					}
+					System.arraycopy(rows, lo, buffer, lo, hi - lo);
+					int i = lo, j = mid, k = lo;
+					while (i < mid && j < hi) {
+						rows[k++] = comparator.applyAsInt(buffer[j], buffer[i]) < 0 ? buffer[j++] : buffer[i++];
+					}
+					while (i < mid) {
+						rows[k++] = buffer[i++];
+					}
+					while (j < hi) {
+						rows[k++] = buffer[j++];
+					}
+				}
+			}
+		}
+	}
+	
+	Map<String, Column> collections;
+	ToLongFunction<T> encoder;
+	KeyDecoder<T> decoder;
+	
+	public PrimitiveElementCollection(ToLongFunction<T> encoder, KeyDecoder<T> decoder) {
+		this.encoder = encoder;
+		this.decoder = decoder;
+		collections = new HashMap<>();
+	}
+	
+	public static PrimitiveElementCollection<IntegerElement> forIntegers() {
+		return new PrimitiveElementCollection<>(e -> e.value, (key, ts) -> new IntegerElement((int) key, ts));
+	}
+	
+	public static PrimitiveElementCollection<TwoIntegersElement> forTwoIntegers() {
+		// value1 in the high half, value2 with its sign bit flipped in the low half keeps the long order equal to compareTo
+		return new PrimitiveElementCollection<>(
+				e -> ((long) e.value1 << 32) | ((e.value2 ^ Integer.MIN_VALUE) & 0xFFFFFFFFL),
+				(key, ts) -> new TwoIntegersElement((int) (key >> 32), (int) key ^ Integer.MIN_VALUE, ts));
+	}
+	
+	public void addGenericItem(String category, T element) {
+		collections.computeIfAbsent(category, k -> new Column()).add(encoder.applyAsLong(element), element.getTimestamp());
+	}
+	
+	private Collection<Column> columns() {
+		collections.values().forEach(Column::flush);
+		return collections.values();
+	}
+	
+	public Collection<T> findAllBetween(LocalDateTime from, LocalDateTime to) {
+		long fromSeconds = from.toEpochSecond(ZoneOffset.UTC);
+		long toSeconds = to.toEpochSecond(ZoneOffset.UTC);
+		TreeSet<T> result = new TreeSet<>(Comparator.reverseOrder());
+		for (Column column : columns()) {
+			int[] rows = column.byTime();
+			int end = column.timeBound(toSeconds, to.getNano(), true);
+			for (int i = column.timeBound(fromSeconds, from.getNano(), false); i < end; i++) {
+				result.add(decoder.decode(column.keys[rows[i]], column.timestamp(rows[i])));
+			}
+		}
+		return result;
+	}
+	
+	public Collection<T> itemsFromCategories(List<String> categories) {
+		Set<String> requested = new HashSet<>(categories);
+		TreeSet<T> result = new TreeSet<>(Comparator.reverseOrder());
+		collections.forEach((category, column) -> {
+			if (requested.contains(category)) {
+				column.flush();
+				for (int i = 0; i < column.size; i++) {
+					result.add(decoder.decode(column.keys[i], column.timestamp(i)));
+				}
+			}
+		});
+		return result;
+	}
+	
+	public Map<String, Set<T>> byMonthAndDay() {
+		Map<String, Set<T>> result = new TreeMap<>();
+		for (Column column : columns()) {
+			for (int i = 0; i < column.size; i++) {
+				LocalDateTime timestamp = column.timestamp(i);
+				result.computeIfAbsent(String.format("%02d-%02d", timestamp.getMonthValue(), timestamp.getDayOfMonth()),
+								k -> new TreeSet<>(Comparator.reverseOrder()))
+						.add(decoder.decode(column.keys[i], timestamp));
+			}
+		}
+		return result;
+	}
+	
+	public Map<Integer, Long> countByYear() {
+		Map<Integer, Long> result = new TreeMap<>();
+		for (Column column : columns()) {
+			for (int i = 0; i < column.size; i++) {
+				int year = LocalDate.ofEpochDay(Math.floorDiv(column.seconds[i], 86400L)).getYear();
+				result.merge(year, 1L, Long::sum);
+			}
+		}
+		return result;
 	}
 }
 
@@ -4,15 +4,59 @@ package payroll;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class Money {
+	// amounts are kept as long cents; a double is rounded half-up from its shortest decimal representation
+	static long toCents(double amount) {
+		return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+	
+	static String format(long cents) {
+		return BigDecimal.valueOf(cents, 2).toPlainString();
+	}
+}
+
+// the payroll only reports salary cents per level; each level's running sum is a one-slot array
+class MoneyLedger {
+	Map<String, long[]> salaryCents;
+	
+	public MoneyLedger() {
+		salaryCents = new TreeMap<>();
+	}
+	
+	public void accept(Employee e) {
+		salaryCents.computeIfAbsent(e.getLevel(), k -> new long[1])[0] += e.salaryCents;
+	}
+	
+	public MoneyLedger merge(MoneyLedger other) {
+		other.salaryCents.forEach((level, cents) -> salaryCents.computeIfAbsent(level, k -> new long[1])[0] += cents[0]);
+		return this;
+	}
+	
+	public Map<String, Long> getSalaryCentsByLevel() {
+		Map<String, Long> result = new TreeMap<>();
+		salaryCents.forEach((level, cents) -> result.put(level, cents[0]));
+		return result;
+	}
+}
 
 abstract class Employee implements Comparable<Employee> {
 	String type;
 	String id;
 	String level;
 	double rate;
+	double salary;
+	long salaryCents;
 	
 	public Employee(String type, String id, String level, double rate) {
 		this.type = type;
@@ -28,15 +72,20 @@ abstract class Employee implements Comparable<Employee> {
 		String level = parts[2];
 		
 		if (parts.length > 4) {
-			List<Integer> list = Arrays.stream(parts).skip(3).map(Integer::parseInt).collect(Collectors.toList());
-			return new FreelanceEmployee(type, id, level, list, ticketRateByLevel.get(level));
+			int[] points = new int[parts.length - 3];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = Integer.parseInt(parts[i + 3]);
+			}
+			return new FreelanceEmployee(type, id, level, points, ticketRateByLevel.get(level));
 		} else {
 			double hours = Double.parseDouble(parts[3]);
 			return new HourlyEmployee(type, id, level, hours, hourlyRateByLevel.get(level));
 		}
 	}
 	
-	abstract double getSalary();
+	double getSalary() {
+		return salary;
+	}
 	
 	abstract public String getId();
 	
@@ -49,7 +98,7 @@ abstract class Employee implements Comparable<Employee> {
 	
 	@Override
 	public int compareTo(Employee o) {
-		int res = Double.compare(o.getSalary(), this.getSalary());
+		int res = Double.compare(o.salary, this.salary);
 		if (res == 0)
 			res = o.level.compareTo(this.level);
 		return res;
@@ -66,11 +115,8 @@ class HourlyEmployee extends Employee {
 		this.hours = hours;
 		this.overtime = Math.max(0, hours - 40);
 		this.regular = hours - overtime;
-	}
-	
-	@Override
-	public double getSalary() {
-		return regular * rate + overtime * rate * 1.5;
+		this.salary = regular * rate + overtime * rate * 1.5;
+		this.salaryCents = Money.toCents(salary);
 	}
 	
 	@Override
@@ -96,16 +142,17 @@ class HourlyEmployee extends Employee {
 }
 
 class FreelanceEmployee extends Employee {
-	List<Integer> points;
+	int[] points;
+	int totalPoints;
 	
-	public FreelanceEmployee(String type, String id, String level, List<Integer> points, double rate) {
+	public FreelanceEmployee(String type, String id, String level, int[] points, double rate) {
 		super(type, id, level, rate);
 		this.points = points;
-	}
-	
-	@Override
-	double getSalary() {
-		return getTotalPoints() * rate;
+		for (int point : points) {
+			totalPoints += point;
+		}
+		this.salary = totalPoints * rate;
+		this.salaryCents = Money.toCents(salary);
 	}
 	
 	@Override
@@ -119,17 +166,130 @@ class FreelanceEmployee extends Employee {
 	}
 	
 	private int getTotalPoints() {
-		return points.stream().mapToInt(i -> i).sum();
+		return totalPoints;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s Salary: %.2f Tickets count: %d Tickets points: %d", super.toString(), this.getSalary(), this.points.length, this.getTotalPoints());
+	}
+}
+
+class LevelSummary {
+	static final Comparator<Map.Entry<Long, Employee>> BEST_FIRST = Map.Entry.<Long, Employee>comparingByValue()
+			.thenComparing(Map.Entry.comparingByKey());
+	
+	String level;
+	int topN;
+	DoubleSummaryStatistics salaries;
+	long salaryCents;
+	// worst of the kept employees on top; ties are broken by read order so the result matches a stable sort
+	PriorityQueue<Map.Entry<Long, Employee>> top;
+	
+	public LevelSummary(String level, int topN) {
+		this.level = level;
+		this.topN = topN;
+		salaries = new DoubleSummaryStatistics();
+		top = new PriorityQueue<>(BEST_FIRST.reversed());
+	}
+	
+	public void accept(long index, Employee employee) {
+		salaries.accept(employee.getSalary());
+		salaryCents += employee.salaryCents;
+		if (topN <= 0) {
+			return;
+		}
+		Map.Entry<Long, Employee> entry = new AbstractMap.SimpleImmutableEntry<>(index, employee);
+		if (top.size() < topN) {
+			top.add(entry);
+		} else if (BEST_FIRST.compare(entry, top.peek()) < 0) {
+			top.poll();
+			top.add(entry);
+		}
+	}
+	
+	public List<Employee> getTopEmployees() {
+		List<Map.Entry<Long, Employee>> entries = new ArrayList<>(top);
+		entries.sort(BEST_FIRST);
+		List<Employee> result = new ArrayList<>();
+		entries.forEach(e -> result.add(e.getValue()));
+		return result;
 	}
 	
 	@Override
 	public String toString() {
-		return String.format("%s Salary: %.2f Tickets count: %d Tickets points: %d", super.toString(), this.getSalary(), this.points.size(), this.getTotalPoints());
+		return String.format("Employees: %d Total salary: %s Average salary: %.2f Min: %.2f Max: %.2f",
+				salaries.getCount(), Money.format(salaryCents), salaries.getAverage(), salaries.getMin(), salaries.getMax());
+	}
+}
+
+class PayrollChunk {
+	List<Employee> employees;
+	Map<String, List<Employee>> employeesByLevel;
+	MoneyLedger ledger;
+	
+	public PayrollChunk() {
+		employees = new ArrayList<>();
+		employeesByLevel = new HashMap<>();
+		ledger = new MoneyLedger();
+	}
+	
+	public void accept(Employee e) {
+		ledger.accept(e);
+		employees.add(e);
+		employeesByLevel.computeIfAbsent(e.getLevel(), k -> new ArrayList<>()).add(e);
+	}
+	
+	// the right chunk always comes after this one in the input, so list order stays the read order
+	public PayrollChunk merge(PayrollChunk right) {
+		employees.addAll(right.employees);
+		right.employeesByLevel.forEach((level, list) ->
+				employeesByLevel.computeIfAbsent(level, k -> new ArrayList<>()).addAll(list));
+		ledger.merge(right.ledger);
+		return this;
+	}
+}
+
+class PayrollTask extends RecursiveTask<PayrollChunk> {
+	private static final long serialVersionUID = 1L;
+	static final int THRESHOLD = 1024;
+	
+	List<String> lines;
+	int from;
+	int to;
+	Map<String, Double> hourlyRateByLevel;
+	Map<String, Double> ticketRateByLevel;
+	
+	public PayrollTask(List<String> lines, int from, int to, Map<String, Double> hourlyRateByLevel, Map<String, Double> ticketRateByLevel) {
+		this.lines = lines;
+		this.from = from;
+		this.to = to;
+		this.hourlyRateByLevel = hourlyRateByLevel;
+		this.ticketRateByLevel = ticketRateByLevel;
+	}
+	
+	@Override
+	protected PayrollChunk compute() {
+		if (to - from <= THRESHOLD) {
+			PayrollChunk chunk = new PayrollChunk();
+			for (int i = from; i < to; i++) {
+				chunk.accept(Employee.createEmployee(lines.get(i), hourlyRateByLevel, ticketRateByLevel));
+			}
+			return chunk;
+		}
+		int mid = (from + to) >>> 1;
+		PayrollTask left = new PayrollTask(lines, from, mid, hourlyRateByLevel, ticketRateByLevel);
+		PayrollTask right = new PayrollTask(lines, mid, to, hourlyRateByLevel, ticketRateByLevel);
+		left.fork();
+		PayrollChunk rightChunk = right.compute();
+		return left.join().merge(rightChunk);
 	}
 }
 
 class PayrollSystem {
 	List<Employee> employees;
+	Map<String, List<Employee>> employeesByLevel;
+	MoneyLedger ledger;
 	Map<String, Double> hourlyRateByLevel;
 	Map<String, Double> ticketRateByLevel;
 	
@@ -137,31 +297,87 @@ class PayrollSystem {
 		this.hourlyRateByLevel = hourlyRateByLevel;
 		this.ticketRateByLevel = ticketRateByLevel;
 		employees = new ArrayList<>();
+		employeesByLevel = new HashMap<>();
+		ledger = new MoneyLedger();
 	}
 	
 	public void readEmployees(InputStream is) {
 		BufferedReader br = new BufferedReader(new InputStreamReader(is));
 		
-		employees = br.lines()
+		employees = new ArrayList<>();
+		employeesByLevel = new HashMap<>();
+		ledger = new MoneyLedger();
+		br.lines()
 				.map(line -> Employee.createEmployee(line, hourlyRateByLevel, ticketRateByLevel))
-				.collect(Collectors.toList());
+				.forEach(e -> {
+					employees.add(e);
+					ledger.accept(e);
+					employeesByLevel.computeIfAbsent(e.getLevel(), k -> new ArrayList<>()).add(e);
+				});
+		employeesByLevel.values().forEach(Collections::sort);
+	}
+	
+	// same employees and level order as readEmployees; returns the salary statistics of each level
+	public Map<String, DoubleSummaryStatistics> readEmployeesParallel(List<String> lines, ForkJoinPool pool) {
+		PayrollChunk chunk = pool.invoke(new PayrollTask(lines, 0, lines.size(), hourlyRateByLevel, ticketRateByLevel));
+		Map<String, DoubleSummaryStatistics> salariesByLevel = new TreeMap<>();
+		chunk.employeesByLevel.keySet().forEach(level -> salariesByLevel.put(level, new DoubleSummaryStatistics()));
+		// each level is folded in read order before it is sorted, so the sums match a sequential pass bit for bit
+		pool.submit(() -> chunk.employeesByLevel.entrySet().parallelStream().forEach(entry -> {
+			DoubleSummaryStatistics stats = salariesByLevel.get(entry.getKey());
+			entry.getValue().forEach(e -> stats.accept(e.getSalary()));
+			Collections.sort(entry.getValue());
+		})).join();
+		
+		employees = chunk.employees;
+		employeesByLevel = chunk.employeesByLevel;
+		ledger = chunk.ledger;
+		return salariesByLevel;
 	}
 	
 	public Map<String, Collection<Employee>> printEmployeesByLevels(OutputStream os, Set<String> levels) {
 		Map<String, Collection<Employee>> map = new TreeMap<>();
 		
 		for (String level : levels) {
-			List<Employee> list = employees.stream()
-					.filter(i -> i.getLevel().equals(level))
-					.sorted()
-					.collect(Collectors.toList());
+			List<Employee> list = employeesByLevel.get(level);
 			
-			if (! list.isEmpty())
-				map.put(level, list);
+			if (list != null && ! list.isEmpty())
+				map.put(level, Collections.unmodifiableList(list));
 		}
 		
 		return map;
 	}
+	
+	public Map<String, Long> getSalaryCentsByLevel() {
+		return ledger.getSalaryCentsByLevel();
+	}
+	
+	// reads the employees one line at a time and keeps only per-level aggregates and the best topN of each level
+	public Map<String, LevelSummary> runStreamingPayroll(Path path, int topN, OutputStream os) throws IOException {
+		Map<String, LevelSummary> summaries = new TreeMap<>();
+		long index = 0;
+		try (BufferedReader br = Files.newBufferedReader(path)) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				Employee e = Employee.createEmployee(line, hourlyRateByLevel, ticketRateByLevel);
+				summaries.computeIfAbsent(e.getLevel(), k -> new LevelSummary(k, topN)).accept(index++, e);
+			}
+		}
+		
+		PrintWriter pw = new PrintWriter(os);
+		summaries.forEach((level, summary) -> {
+			pw.println("LEVEL: " + level);
+			pw.println(summary);
+			pw.println("Top " + topN + ": ");
+			summary.getTopEmployees().forEach(pw::println);
+			pw.println("------------");
+		});
+		pw.flush();
+		return summaries;
+	}
 }
 
 public class PayrollSystemTest {
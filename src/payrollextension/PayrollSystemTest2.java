@@ -1,6 +1,21 @@
 package payrollextension;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 class BonusNotAllowedException extends Exception {
@@ -21,6 +36,17 @@ interface Employee {
 	String getLevel();
 	
 	int getTicketsCount();
+	
+	long getSalaryCents();
+	
+	long getBonusCents();
+	
+	long getOvertimeCents();
+}
+
+// wraps a change to an employee's amounts, so totals the owner keeps for it are updated under the owner's lock
+interface EmployeeOwner {
+	void update(Employee e, Runnable change);
 }
 
 abstract class EmployeeBase implements Employee {
@@ -28,6 +54,10 @@ abstract class EmployeeBase implements Employee {
 	String level;
 	double rate;
 	double totalBonus;
+	long salaryCents;
+	long bonusCents;
+	long overtimeCents;
+	EmployeeOwner owner;
 	
 	public EmployeeBase(String id, String level, double rate) {
 		this.id = id;
@@ -41,13 +71,51 @@ abstract class EmployeeBase implements Employee {
 	}
 	
 	public void updateBonus(double amount) {
+		if (owner != null) {
+			owner.update(this, () -> addBonus(amount));
+		} else {
+			addBonus(amount);
+		}
+	}
+	
+	private void addBonus(double amount) {
 		totalBonus += amount;
+		refreshCents();
 	}
 	
 	public String getLevel() {
 		return level;
 	}
 	
+	abstract double getBaseSalary();
+	
+	// called whenever the rate or the bonus changes, so the ledger only ever adds longs
+	void refreshCents() {
+		salaryCents = Money.toCents(getSalary());
+		bonusCents = Money.toCents(getBonus());
+		overtimeCents = getOvertime() == - 1 ? 0 : Money.toCents(getOvertime());
+	}
+	
+	@Override
+	public long getSalaryCents() {
+		return salaryCents;
+	}
+	
+	@Override
+	public long getBonusCents() {
+		return bonusCents;
+	}
+	
+	@Override
+	public long getOvertimeCents() {
+		return overtimeCents;
+	}
+	
+	@Override
+	public double getSalary() {
+		return getBaseSalary() + getBonus();
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("Employee ID: %s Level: %s", id, level);
@@ -64,11 +132,12 @@ class HourlyEmployee extends EmployeeBase {
 		this.hours = hours;
 		this.overtime = Math.max(0, hours - 40);
 		this.regular = hours - overtime;
+		refreshCents();
 	}
 	
 	@Override
-	public double getSalary() {
-		return regular * rate + overtime * rate * 1.5 + this.getBonus();
+	double getBaseSalary() {
+		return regular * rate + overtime * rate * 1.5;
 	}
 	
 	@Override
@@ -99,6 +168,7 @@ class FreelanceEmployee extends EmployeeBase {
 	public FreelanceEmployee(String id, String level, double rate, List<Integer> points) {
 		super(id, level, rate);
 		this.points = points;
+		refreshCents();
 	}
 	
 	public int getTotalPoints() {
@@ -106,8 +176,8 @@ class FreelanceEmployee extends EmployeeBase {
 	}
 	
 	@Override
-	public double getSalary() {
-		return points.stream().mapToInt(Integer::intValue).sum() * rate + this.getBonus();
+	double getBaseSalary() {
+		return getTotalPoints() * rate;
 	}
 	
 	@Override
@@ -155,6 +225,21 @@ abstract class BonusDecorator implements Employee {
 		employee.updateBonus(amount);
 	}
 	
+	@Override
+	public long getSalaryCents() {
+		return Money.toCents(getSalary());
+	}
+	
+	@Override
+	public long getBonusCents() {
+		return Money.toCents(getBonus());
+	}
+	
+	@Override
+	public long getOvertimeCents() {
+		return employee.getOvertimeCents();
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("%s Bonus: %.2f", employee.toString(), employee.getBonus());
@@ -203,31 +288,178 @@ class PercentageBonusDecorator extends BonusDecorator {
 	}
 }
 
+class BonusRule {
+	boolean percentage;
+	double value;
+	
+	public BonusRule(boolean percentage, double value) {
+		this.percentage = percentage;
+		this.value = value;
+	}
+	
+	public static BonusRule parse(String token) throws BonusNotAllowedException {
+		if (token.contains("%")) {
+			double percentage = Double.parseDouble(token.substring(0, token.length() - 1));
+			if (percentage > 20) {
+				throw new BonusNotAllowedException(token);
+			}
+			return new BonusRule(true, percentage);
+		} else {
+			double bonusAmount = Double.parseDouble(token);
+			if (bonusAmount > 1000) {
+				throw new BonusNotAllowedException(token + "$");
+			}
+			return new BonusRule(false, bonusAmount);
+		}
+	}
+}
+
+// Evaluates a list of bonus rules once, with the same arithmetic as the equivalent chain of bonus decorators
+// (the first rule being the innermost decorator), and caches the salary, bonus and report text.
+class CompiledEmployee implements Employee {
+	EmployeeBase employee;
+	List<BonusRule> rules;
+	double initialBonus;
+	double laterBonus;
+	double[] bonuses; // bonuses[k] is the bonus of the k-th rule, bonuses[0] the base employee's running total
+	double salary;
+	double bonus;
+	long salaryCents;
+	long bonusCents;
+	String bonusText;
+	EmployeeOwner owner;
+	
+	public CompiledEmployee(EmployeeBase employee, List<BonusRule> rules) {
+		this.employee = employee;
+		this.rules = rules;
+		this.initialBonus = employee.totalBonus;
+		compile();
+	}
+	
+	void compile() {
+		int m = rules.size();
+		bonuses = new double[m + 1];
+		double base = employee.getBaseSalary();
+		double total = initialBonus;
+		for (int k = 1; k <= m; k++) {
+			BonusRule rule = rules.get(k - 1);
+			bonuses[k] = rule.percentage ? salaryOfLayer(base, total, bonuses, k - 1) * rule.value / 100.0 : rule.value;
+			total += bonuses[k];
+		}
+		employee.totalBonus = total + laterBonus;
+		employee.refreshCents();
+		refresh();
+	}
+	
+	private void refresh() {
+		int m = rules.size();
+		double total = employee.totalBonus;
+		bonuses[0] = total;
+		salary = salaryOfLayer(employee.getBaseSalary(), total, bonuses, m);
+		bonus = bonuses[m];
+		salaryCents = Money.toCents(salary);
+		bonusCents = Money.toCents(bonus);
+		StringBuilder sb = new StringBuilder();
+		for (int k = 1; k <= m; k++) {
+			sb.append(String.format(" Bonus: %.2f", bonuses[k - 1]));
+		}
+		bonusText = sb.toString();
+	}
+	
+	// a decorator's salary is its inner employee's salary plus that employee's bonus; the base adds the running total
+	private static double salaryOfLayer(double base, double total, double[] bonuses, int layer) {
+		double s = base + total;
+		for (int j = 1; j <= layer; j++) {
+			s += j == 1 ? total : bonuses[j - 1];
+		}
+		return s;
+	}
+	
+	@Override
+	public double getBonus() {
+		return bonus;
+	}
+	
+	@Override
+	public double getSalary() {
+		return salary;
+	}
+	
+	// like a decorator chain, a later bonus only moves the running total; earlier percentage bonuses stay as they were
+	@Override
+	public void updateBonus(double amount) {
+		if (owner != null) {
+			owner.update(this, () -> addBonus(amount));
+		} else {
+			addBonus(amount);
+		}
+	}
+	
+	private void addBonus(double amount) {
+		laterBonus += amount;
+		employee.updateBonus(amount);
+		refresh();
+	}
+	
+	@Override
+	public double getOvertime() {
+		return employee.getOvertime();
+	}
+	
+	@Override
+	public String getLevel() {
+		return employee.getLevel();
+	}
+	
+	@Override
+	public int getTicketsCount() {
+		return employee.getTicketsCount();
+	}
+	
+	@Override
+	public long getSalaryCents() {
+		return salaryCents;
+	}
+	
+	@Override
+	public long getBonusCents() {
+		return bonusCents;
+	}
+	
+	@Override
+	public long getOvertimeCents() {
+		return employee.getOvertimeCents();
+	}
+	
+	@Override
+	public String toString() {
+		return employee.toString() + bonusText;
+	}
+}
+
 class EmployeeFactory {
 	public static Employee createEmployee(String line, Map<String, Double> hourlyRateByLevel,
 	                                      Map<String, Double> ticketRateByLevel) throws BonusNotAllowedException {
 		String[] parts = line.split("\\s+");
-		Employee e = createSimpleEmployee(parts[0], hourlyRateByLevel, ticketRateByLevel);
+		EmployeeBase e = createSimpleEmployee(parts[0], hourlyRateByLevel, ticketRateByLevel);
 		
 		if (parts.length > 1) {
-			if (parts[1].contains("%")) {
-				double percentage = Double.parseDouble(parts[1].substring(0, parts[1].length() - 1));
-				if (percentage > 20) {
-					throw new BonusNotAllowedException(parts[1]);
-				}
-				e = new PercentageBonusDecorator(e, percentage);
-			} else {
-				double bonusAmount = Double.parseDouble(parts[1]);
-				if (bonusAmount > 1000) {
-					throw new BonusNotAllowedException(parts[1] + "$");
-				}
-				e = new FixedBonusDecorator(e, bonusAmount);
-			}
+			return new CompiledEmployee(e, List.of(BonusRule.parse(parts[1])));
 		}
 		return e;
 	}
 	
-	public static Employee createSimpleEmployee(String line, Map<String, Double> hourlyRateByLevel,
+	// stacked bonuses, the first rule applied first like the innermost decorator
+	public static Employee createEmployee(String record, List<BonusRule> rules, Map<String, Double> hourlyRateByLevel,
+	                                      Map<String, Double> ticketRateByLevel) {
+		EmployeeBase e = createSimpleEmployee(record, hourlyRateByLevel, ticketRateByLevel);
+		if (rules.isEmpty()) {
+			return e;
+		}
+		return new CompiledEmployee(e, new ArrayList<>(rules));
+	}
+	
+	public static EmployeeBase createSimpleEmployee(String line, Map<String, Double> hourlyRateByLevel,
 	                                            Map<String, Double> ticketRateByLevel) {
 		String[] parts = line.split(";");
 		String id = parts[1];
@@ -242,38 +474,789 @@ class EmployeeFactory {
 	}
 }
 
-class PayrollSystem {
+class Money {
+	static long toCents(double amount) {
+		return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+	
+	static String format(long cents) {
+		return BigDecimal.valueOf(cents, 2).toPlainString();
+	}
+}
+
+class MoneyLedger {
+	Map<String, Integer> levelIndex;
+	String[] levels;
+	long[] salaryCents;
+	long[] bonusCents;
+	long[] overtimeCents;
+	int[] hourlyCounts;
+	int size;
+	
+	public MoneyLedger() {
+		levelIndex = new HashMap<>();
+		levels = new String[8];
+		salaryCents = new long[8];
+		bonusCents = new long[8];
+		overtimeCents = new long[8];
+		hourlyCounts = new int[8];
+	}
+	
+	private int indexOf(String level) {
+		Integer index = levelIndex.get(level);
+		if (index != null) {
+			return index;
+		}
+		if (size == levels.length) {
+			levels = Arrays.copyOf(levels, size * 2);
+			salaryCents = Arrays.copyOf(salaryCents, size * 2);
+			bonusCents = Arrays.copyOf(bonusCents, size * 2);
+			overtimeCents = Arrays.copyOf(overtimeCents, size * 2);
+			hourlyCounts = Arrays.copyOf(hourlyCounts, size * 2);
+		}
+		levels[size] = level;
+		levelIndex.put(level, size);
+		return size++;
+	}
+	
+	public void accept(Employee e) {
+		add(e, 1);
+	}
+	
+	// undoes accept for an employee whose amounts are about to change
+	public void remove(Employee e) {
+		add(e, - 1);
+	}
+	
+	private void add(Employee e, int sign) {
+		int i = indexOf(e.getLevel());
+		salaryCents[i] += sign * e.getSalaryCents();
+		bonusCents[i] += sign * e.getBonusCents();
+		if (e.getOvertime() != - 1) {
+			overtimeCents[i] += sign * e.getOvertimeCents();
+			hourlyCounts[i] += sign;
+		}
+	}
+	
+	// long sums are exact, so the merge order of parallel chunks does not change the result
+	public MoneyLedger merge(MoneyLedger other) {
+		for (int j = 0; j < other.size; j++) {
+			int i = indexOf(other.levels[j]);
+			salaryCents[i] += other.salaryCents[j];
+			bonusCents[i] += other.bonusCents[j];
+			overtimeCents[i] += other.overtimeCents[j];
+			hourlyCounts[i] += other.hourlyCounts[j];
+		}
+		return this;
+	}
+	
+	public Map<String, Long> getOvertimeCentsByLevel() {
+		Map<String, Long> result = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			if (hourlyCounts[i] > 0) {
+				result.put(levels[i], overtimeCents[i]);
+			}
+		}
+		return result;
+	}
+	
+	public Map<String, Long> getSalaryCentsByLevel() {
+		Map<String, Long> result = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			result.put(levels[i], salaryCents[i]);
+		}
+		return result;
+	}
+	
+	public long getTotalBonusCents() {
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			total += bonusCents[i];
+		}
+		return total;
+	}
+}
+
+class LevelStatistics {
+	DoubleSummaryStatistics overtime; // getOvertime of every employee, freelancers' -1 included
+	DoubleSummaryStatistics overtimeSalary; // hourly employees only
+	int ticketsCount;
+	int freelancers;
+	
+	public LevelStatistics() {
+		overtime = new DoubleSummaryStatistics();
+		overtimeSalary = new DoubleSummaryStatistics();
+	}
+	
+	public void accept(Employee e) {
+		overtime.accept(e.getOvertime());
+		if (e.getOvertime() != - 1) {
+			overtimeSalary.accept(e.getOvertime());
+		}
+		if (e.getTicketsCount() != - 1) {
+			ticketsCount += e.getTicketsCount();
+			freelancers++;
+		}
+	}
+}
+
+class PayrollChunk {
 	List<Employee> employees;
+	List<String> errors;
+	MoneyLedger ledger;
+	
+	public PayrollChunk() {
+		employees = new ArrayList<>();
+		errors = new ArrayList<>();
+		ledger = new MoneyLedger();
+	}
+	
+	public void accept(Employee e) {
+		employees.add(e);
+		ledger.accept(e);
+	}
+	
+	public PayrollChunk merge(PayrollChunk right) {
+		employees.addAll(right.employees);
+		errors.addAll(right.errors);
+		ledger.merge(right.ledger);
+		return this;
+	}
+}
+
+class CreateEmployeesTask extends RecursiveTask<PayrollChunk> {
+	private static final long serialVersionUID = 1L;
+	static final int THRESHOLD = 1024;
 	
+	List<String> lines;
+	int from;
+	int to;
 	Map<String, Double> hourlyRateByLevel;
 	Map<String, Double> ticketRateByLevel;
 	
+	public CreateEmployeesTask(List<String> lines, int from, int to, Map<String, Double> hourlyRateByLevel,
+	                           Map<String, Double> ticketRateByLevel) {
+		this.lines = lines;
+		this.from = from;
+		this.to = to;
+		this.hourlyRateByLevel = hourlyRateByLevel;
+		this.ticketRateByLevel = ticketRateByLevel;
+	}
+	
+	@Override
+	protected PayrollChunk compute() {
+		if (to - from <= THRESHOLD) {
+			PayrollChunk chunk = new PayrollChunk();
+			for (int i = from; i < to; i++) {
+				try {
+					chunk.accept(EmployeeFactory.createEmployee(lines.get(i), hourlyRateByLevel, ticketRateByLevel));
+				} catch (BonusNotAllowedException e) {
+					chunk.errors.add(e.getMessage());
+				}
+			}
+			return chunk;
+		}
+		int mid = (from + to) >>> 1;
+		CreateEmployeesTask left = new CreateEmployeesTask(lines, from, mid, hourlyRateByLevel, ticketRateByLevel);
+		CreateEmployeesTask right = new CreateEmployeesTask(lines, mid, to, hourlyRateByLevel, ticketRateByLevel);
+		left.fork();
+		PayrollChunk rightChunk = right.compute();
+		return left.join().merge(rightChunk);
+	}
+}
+
+// Columnar binary image of a roster: one array per field, so the file can be mapped and read without parsing text.
+class PayrollSnapshot {
+	static final int MAGIC = 0x50415952; // "PAYR"
+	static final int VERSION = 2;
+	static final byte HOURLY = 0;
+	static final byte FREELANCE = 1;
+	// the file is mapped in pages; every column starts 8-aligned, so no fixed-width value crosses a page
+	static final int PAGE_SHIFT = 30;
+	static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+	
+	ByteBuffer[] pages;
+	int count;
+	String[] levels;
+	long idOffsetsPos, idBytesPos, typePos, levelPos, ratePos, hoursPos, pointOffsetsPos, pointsPos;
+	long ruleOffsetsPos, ruleKindsPos, ruleValuesPos, initialBonusPos, laterBonusPos;
+	long salaryPos, bonusPos, overtimePos, ticketsPos;
+	
+	private PayrollSnapshot(ByteBuffer[] pages) {
+		this.pages = pages;
+		if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+			throw new IllegalArgumentException("Not a payroll snapshot");
+		}
+		count = getInt(8);
+		levels = new String[getInt(12)];
+		long position = 16;
+		for (int i = 0; i < levels.length; i++) {
+			byte[] bytes = new byte[getShort(position) & 0xFFFF];
+			getBytes(position + 2, bytes);
+			levels[i] = new String(bytes, StandardCharsets.UTF_8);
+			position += 2 + bytes.length;
+		}
+		idOffsetsPos = align(position);
+		idBytesPos = align(idOffsetsPos + 8L * (count + 1));
+		typePos = align(idBytesPos + getLong(idOffsetsPos + 8L * count));
+		levelPos = align(typePos + count);
+		ratePos = align(levelPos + 4L * count);
+		hoursPos = ratePos + 8L * count;
+		pointOffsetsPos = hoursPos + 8L * count;
+		pointsPos = pointOffsetsPos + 8L * (count + 1);
+		ruleOffsetsPos = align(pointsPos + 4 * getLong(pointOffsetsPos + 8L * count));
+		long rules = getLong(ruleOffsetsPos + 8L * count);
+		ruleKindsPos = ruleOffsetsPos + 8L * (count + 1);
+		ruleValuesPos = align(ruleKindsPos + rules);
+		initialBonusPos = ruleValuesPos + 8 * rules;
+		laterBonusPos = initialBonusPos + 8L * count;
+		salaryPos = laterBonusPos + 8L * count;
+		bonusPos = salaryPos + 8L * count;
+		overtimePos = bonusPos + 8L * count;
+		ticketsPos = overtimePos + 8L * count;
+	}
+	
+	static long align(long position) {
+		return (position + 7) & ~ 7L;
+	}
+	
+	private ByteBuffer page(long position) {
+		return pages[(int) (position >>> PAGE_SHIFT)];
+	}
+	
+	private int offset(long position) {
+		return (int) (position & (PAGE_SIZE - 1));
+	}
+	
+	private byte getByte(long position) {
+		return page(position).get(offset(position));
+	}
+	
+	// only the level names in the header are not aligned, and they are read before any column
+	private short getShort(long position) {
+		return (short) (((getByte(position) & 0xFF) << 8) | (getByte(position + 1) & 0xFF));
+	}
+	
+	private int getInt(long position) {
+		return page(position).getInt(offset(position));
+	}
+	
+	private long getLong(long position) {
+		return page(position).getLong(offset(position));
+	}
+	
+	private double getDouble(long position) {
+		return page(position).getDouble(offset(position));
+	}
+	
+	// byte ranges may cross a page
+	private void getBytes(long position, byte[] bytes) {
+		int done = 0;
+		while (done < bytes.length) {
+			int offset = offset(position + done);
+			int n = (int) Math.min(bytes.length - done, PAGE_SIZE - offset);
+			page(position + done).get(offset, bytes, done, n);
+			done += n;
+		}
+	}
+	
+	public static PayrollSnapshot open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer[] pages = new ByteBuffer[(int) ((size + PAGE_SIZE - 1) >>> PAGE_SHIFT)];
+			for (int p = 0; p < pages.length; p++) {
+				long from = (long) p << PAGE_SHIFT;
+				pages[p] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(PAGE_SIZE, size - from));
+			}
+			return new PayrollSnapshot(pages);
+		}
+	}
+	
+	// buffered sequential writes with a long position, so a snapshot is never held in memory as a whole
+	static class Output implements AutoCloseable {
+		FileChannel channel;
+		ByteBuffer buffer;
+		long position;
+		
+		Output(Path path) throws IOException {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocate(1 << 16);
+		}
+		
+		private Output reserve(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+			position += bytes;
+			return this;
+		}
+		
+		Output put(byte value) throws IOException {
+			reserve(1).buffer.put(value);
+			return this;
+		}
+		
+		Output putShort(short value) throws IOException {
+			reserve(2).buffer.putShort(value);
+			return this;
+		}
+		
+		Output putInt(int value) throws IOException {
+			reserve(4).buffer.putInt(value);
+			return this;
+		}
+		
+		Output putLong(long value) throws IOException {
+			reserve(8).buffer.putLong(value);
+			return this;
+		}
+		
+		Output putDouble(double value) throws IOException {
+			reserve(8).buffer.putDouble(value);
+			return this;
+		}
+		
+		Output put(byte[] bytes) throws IOException {
+			for (int done = 0; done < bytes.length; ) {
+				if (! buffer.hasRemaining()) {
+					flush();
+				}
+				int n = Math.min(buffer.remaining(), bytes.length - done);
+				buffer.put(bytes, done, n);
+				done += n;
+			}
+			position += bytes.length;
+			return this;
+		}
+		
+		Output align() throws IOException {
+			while ((position & 7) != 0) {
+				put((byte) 0);
+			}
+			return this;
+		}
+		
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+	
+	private static EmployeeBase baseOf(Employee e) {
+		if (e instanceof CompiledEmployee) {
+			return ((CompiledEmployee) e).employee;
+		} else if (e instanceof EmployeeBase) {
+			return (EmployeeBase) e;
+		}
+		throw new IllegalArgumentException("Only employees created by EmployeeFactory can be saved");
+	}
+	
+	private static List<BonusRule> rulesOf(Employee e) {
+		return e instanceof CompiledEmployee ? ((CompiledEmployee) e).rules : Collections.emptyList();
+	}
+	
+	// writes one column at a time straight from the employees
+	public static void write(Path path, List<Employee> employees) throws IOException {
+		Map<String, Integer> levelIndex = new LinkedHashMap<>();
+		for (Employee e : employees) {
+			String level = baseOf(e).level;
+			if (! levelIndex.containsKey(level)) {
+				if (level.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+					throw new IllegalArgumentException("Level name longer than 65535 bytes cannot be saved");
+				}
+				levelIndex.put(level, levelIndex.size());
+			}
+		}
+		
+		try (Output out = new Output(path)) {
+			out.putInt(MAGIC).putInt(VERSION).putInt(employees.size()).putInt(levelIndex.size());
+			for (String level : levelIndex.keySet()) {
+				byte[] bytes = level.getBytes(StandardCharsets.UTF_8);
+				out.putShort((short) bytes.length).put(bytes);
+			}
+			out.align();
+			long offset = 0;
+			out.putLong(offset);
+			for (Employee e : employees) {
+				offset += baseOf(e).id.getBytes(StandardCharsets.UTF_8).length;
+				out.putLong(offset);
+			}
+			for (Employee e : employees) {
+				out.put(baseOf(e).id.getBytes(StandardCharsets.UTF_8));
+			}
+			out.align();
+			for (Employee e : employees) {
+				out.put(baseOf(e) instanceof HourlyEmployee ? HOURLY : FREELANCE);
+			}
+			out.align();
+			for (Employee e : employees) {
+				out.putInt(levelIndex.get(baseOf(e).level));
+			}
+			out.align();
+			for (Employee e : employees) {
+				out.putDouble(baseOf(e).rate);
+			}
+			for (Employee e : employees) {
+				EmployeeBase b = baseOf(e);
+				out.putDouble(b instanceof HourlyEmployee ? ((HourlyEmployee) b).hours : 0);
+			}
+			offset = 0;
+			out.putLong(offset);
+			for (Employee e : employees) {
+				EmployeeBase b = baseOf(e);
+				offset += b instanceof FreelanceEmployee ? ((FreelanceEmployee) b).points.size() : 0;
+				out.putLong(offset);
+			}
+			for (Employee e : employees) {
+				EmployeeBase b = baseOf(e);
+				if (b instanceof FreelanceEmployee) {
+					for (int point : ((FreelanceEmployee) b).points) {
+						out.putInt(point);
+					}
+				}
+			}
+			out.align();
+			offset = 0;
+			out.putLong(offset);
+			for (Employee e : employees) {
+				offset += rulesOf(e).size();
+				out.putLong(offset);
+			}
+			for (Employee e : employees) {
+				for (BonusRule r : rulesOf(e)) {
+					out.put((byte) (r.percentage ? 1 : 0));
+				}
+			}
+			out.align();
+			for (Employee e : employees) {
+				for (BonusRule r : rulesOf(e)) {
+					out.putDouble(r.value);
+				}
+			}
+			for (Employee e : employees) {
+				out.putDouble(e instanceof CompiledEmployee ? ((CompiledEmployee) e).initialBonus : ((EmployeeBase) e).totalBonus);
+			}
+			for (Employee e : employees) {
+				out.putDouble(e instanceof CompiledEmployee ? ((CompiledEmployee) e).laterBonus : 0);
+			}
+			for (Employee e : employees) {
+				out.putDouble(e.getSalary());
+			}
+			for (Employee e : employees) {
+				out.putDouble(e.getBonus());
+			}
+			for (Employee e : employees) {
+				out.putDouble(e.getOvertime());
+			}
+			for (Employee e : employees) {
+				out.putInt(e.getTicketsCount());
+			}
+			out.align();
+		}
+	}
+	
+	public int size() {
+		return count;
+	}
+	
+	public String getId(int i) {
+		long from = getLong(idOffsetsPos + 8L * i);
+		byte[] bytes = new byte[(int) (getLong(idOffsetsPos + 8L * (i + 1)) - from)];
+		getBytes(idBytesPos + from, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	public String getLevel(int i) {
+		return levels[getInt(levelPos + 4L * i)];
+	}
+	
+	public double getSalary(int i) {
+		return getDouble(salaryPos + 8L * i);
+	}
+	
+	public double getBonus(int i) {
+		return getDouble(bonusPos + 8L * i);
+	}
+	
+	public double getOvertime(int i) {
+		return getDouble(overtimePos + 8L * i);
+	}
+	
+	public int getTicketsCount(int i) {
+		return getInt(ticketsPos + 4L * i);
+	}
+	
+	// same aggregates as PayrollSystem, read straight from the mapped columns
+	public Map<String, LevelStatistics> getLevelStatistics() {
+		Map<String, LevelStatistics> result = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			LevelStatistics stats = result.computeIfAbsent(getLevel(i), k -> new LevelStatistics());
+			double overtime = getOvertime(i);
+			stats.overtime.accept(overtime);
+			if (overtime != - 1) {
+				stats.overtimeSalary.accept(overtime);
+			}
+			if (getTicketsCount(i) != - 1) {
+				stats.ticketsCount += getTicketsCount(i);
+				stats.freelancers++;
+			}
+		}
+		return result;
+	}
+	
+	// rebuilds the employee from its columns; bonuses are replayed from the stored rules, nothing is parsed
+	public Employee getEmployee(int i) {
+		String id = getId(i);
+		String level = getLevel(i);
+		double rate = getDouble(ratePos + 8L * i);
+		EmployeeBase base;
+		if (getByte(typePos + i) == HOURLY) {
+			base = new HourlyEmployee(id, level, rate, getDouble(hoursPos + 8L * i));
+		} else {
+			long from = getLong(pointOffsetsPos + 8L * i);
+			long to = getLong(pointOffsetsPos + 8L * (i + 1));
+			List<Integer> points = new ArrayList<>((int) (to - from));
+			for (long p = from; p < to; p++) {
+				points.add(getInt(pointsPos + 4 * p));
+			}
+			base = new FreelanceEmployee(id, level, rate, points);
+		}
+		base.totalBonus = getDouble(initialBonusPos + 8L * i);
+		base.refreshCents();
+		
+		long from = getLong(ruleOffsetsPos + 8L * i);
+		long to = getLong(ruleOffsetsPos + 8L * (i + 1));
+		if (from == to) {
+			return base;
+		}
+		List<BonusRule> rules = new ArrayList<>((int) (to - from));
+		for (long r = from; r < to; r++) {
+			rules.add(new BonusRule(getByte(ruleKindsPos + r) == 1, getDouble(ruleValuesPos + 8 * r)));
+		}
+		CompiledEmployee e = new CompiledEmployee(base, rules);
+		double laterBonus = getDouble(laterBonusPos + 8L * i);
+		if (laterBonus != 0) {
+			e.laterBonus = laterBonus;
+			e.compile();
+		}
+		return e;
+	}
+}
+
+class PayrollSystem implements EmployeeOwner {
+	List<Employee> employees;
+	Map<String, List<Employee>> employeesByLevel;
+	Map<String, LevelStatistics> levelStatistics;
+	DoubleSummaryStatistics overtimeSalaryStatistics;
+	MoneyLedger ledger;
+	
+	Map<String, Double> hourlyRateByLevel;
+	Map<String, Double> ticketRateByLevel;
+	// rate updates take the write lock, so queries see the payroll entirely before or entirely after a change
+	ReadWriteLock lock;
+	
 	public PayrollSystem(Map<String, Double> hourlyRateByLevel, Map<String, Double> ticketRateByLevel) {
 		this.hourlyRateByLevel = hourlyRateByLevel;
 		this.ticketRateByLevel = ticketRateByLevel;
 		employees = new ArrayList<>();
+		employeesByLevel = new HashMap<>();
+		levelStatistics = new HashMap<>();
+		overtimeSalaryStatistics = new DoubleSummaryStatistics();
+		ledger = new MoneyLedger();
+		lock = new ReentrantReadWriteLock();
 	}
 	
-	public Employee createEmployee(String line) throws BonusNotAllowedException {
-		Employee e = EmployeeFactory.createEmployee(line, hourlyRateByLevel, ticketRateByLevel);
+	private <R> R read(Supplier<R> query) {
+		lock.readLock().lock();
+		try {
+			return query.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void addEmployee(Employee e) {
+		indexEmployee(e);
+		ledger.accept(e);
+		accumulate(e);
+	}
+	
+	private void accumulate(Employee e) {
+		levelStatistics.computeIfAbsent(e.getLevel(), k -> new LevelStatistics()).accept(e);
+		if (e.getOvertime() != - 1) {
+			overtimeSalaryStatistics.accept(e.getOvertime());
+		}
+	}
+	
+	private void indexEmployee(Employee e) {
+		if (e instanceof CompiledEmployee) {
+			((CompiledEmployee) e).owner = this;
+		} else if (e instanceof EmployeeBase) {
+			((EmployeeBase) e).owner = this;
+		}
 		employees.add(e);
-		return e;
+		employeesByLevel.computeIfAbsent(e.getLevel(), k -> new ArrayList<>()).add(e);
 	}
 	
-	public Map<String, Double> getOvertimeSalaryForLevels() {
-		
-		Map<String, Double> result = employees.stream().collect(Collectors.groupingBy(
-				Employee::getLevel,
-				Collectors.summingDouble(Employee::getOvertime)
-		));
-		List<String> list = result.keySet().stream().filter(k -> result.get(k) == - 1).collect(Collectors.toList());
-		list.forEach(result::remove);
-		
+	// an employee's own updateBonus comes through here, so the ledger never keeps the amounts counted before it
+	@Override
+	public void update(Employee e, Runnable change) {
+		lock.writeLock().lock();
+		try {
+			ledger.remove(e);
+			change.run();
+			ledger.accept(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public Employee createEmployee(String line) throws BonusNotAllowedException {
+		lock.writeLock().lock();
+		try {
+			Employee e = EmployeeFactory.createEmployee(line, hourlyRateByLevel, ticketRateByLevel);
+			addEmployee(e);
+			return e;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public Employee createEmployee(String record, List<BonusRule> rules) {
+		lock.writeLock().lock();
+		try {
+			Employee e = EmployeeFactory.createEmployee(record, rules, hourlyRateByLevel, ticketRateByLevel);
+			addEmployee(e);
+			return e;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// parses the lines on the pool; employees are added in input order and the rejected lines' messages are returned
+	public List<String> createEmployeesParallel(List<String> lines, ForkJoinPool pool) {
+		lock.writeLock().lock();
+		try {
+			PayrollChunk chunk = pool.invoke(new CreateEmployeesTask(lines, 0, lines.size(), hourlyRateByLevel, ticketRateByLevel));
+			// the statistics are folded here in input order, so the double sums match createEmployees exactly
+			chunk.employees.forEach(e -> {
+				indexEmployee(e);
+				accumulate(e);
+			});
+			ledger.merge(chunk.ledger);
+			return chunk.errors;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void saveSnapshot(Path path) throws IOException {
+		lock.readLock().lock();
+		try {
+			PayrollSnapshot.write(path, employees);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// adds the employees of a snapshot written by saveSnapshot, in their original order
+	public void loadSnapshot(Path path) throws IOException {
+		PayrollSnapshot snapshot = PayrollSnapshot.open(path);
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < snapshot.size(); i++) {
+				addEmployee(snapshot.getEmployee(i));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void updateHourlyRate(String level, double rate) {
+		updateRate(level, rate, true);
+	}
+	
+	public void updateTicketRate(String level, double rate) {
+		updateRate(level, rate, false);
+	}
+	
+	// only the employees of the level are recomputed, as if they had been created with the new rate
+	private void updateRate(String level, double rate, boolean hourly) {
+		lock.writeLock().lock();
+		try {
+			Map<String, Double> rates = new LinkedHashMap<>(hourly ? hourlyRateByLevel : ticketRateByLevel);
+			rates.put(level, rate);
+			if (hourly) {
+				hourlyRateByLevel = rates;
+			} else {
+				ticketRateByLevel = rates;
+			}
+			
+			List<Employee> affected = employeesByLevel.get(level);
+			if (affected == null) {
+				return;
+			}
+			LevelStatistics stats = new LevelStatistics();
+			for (Employee e : affected) {
+				EmployeeBase base = e instanceof CompiledEmployee ? ((CompiledEmployee) e).employee : (EmployeeBase) e;
+				if ((base instanceof HourlyEmployee) == hourly) {
+					ledger.remove(e);
+					base.rate = rate;
+					base.refreshCents();
+					if (e instanceof CompiledEmployee) {
+						((CompiledEmployee) e).compile();
+					}
+					ledger.accept(e);
+				}
+				stats.accept(e);
+			}
+			levelStatistics.put(level, stats);
+			overtimeSalaryStatistics = overtimeSalaryStatistics(levelStatistics);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	static Map<String, Double> overtimeSalaryForLevels(Map<String, LevelStatistics> levels) {
+		Map<String, Double> result = new HashMap<>();
+		levels.forEach((level, stats) -> {
+			if (stats.overtime.getSum() != - 1) {
+				result.put(level, stats.overtime.getSum());
+			}
+		});
 		return result;
 	}
 	
-	public void printStatisticsForOvertimeSalary() {
-		DoubleSummaryStatistics dss = employees.stream().filter(i -> i.getOvertime() != -1).mapToDouble(Employee::getOvertime).summaryStatistics();
+	static DoubleSummaryStatistics overtimeSalaryStatistics(Map<String, LevelStatistics> levels) {
+		DoubleSummaryStatistics dss = new DoubleSummaryStatistics();
+		levels.values().forEach(stats -> dss.combine(stats.overtimeSalary));
+		return dss;
+	}
+	
+	static Map<String, Integer> ticketsDoneByLevel(Map<String, LevelStatistics> levels) {
+		Map<String, Integer> result = new HashMap<>();
+		levels.forEach((level, stats) -> {
+			if (stats.freelancers > 0) {
+				result.put(level, stats.ticketsCount);
+			}
+		});
+		return result;
+	}
+	
+	static void printStatistics(DoubleSummaryStatistics dss) {
 		System.out.printf("Statistics for overtime salary: " +
 				"Min: %.2f Average: %.2f Max: %.2f Sum: %.2f\n",
 				dss.getMin(),
@@ -282,16 +1265,56 @@ class PayrollSystem {
 				dss.getSum());
 	}
 	
+	public Map<String, Double> getOvertimeSalaryForLevels() {
+		return read(() -> overtimeSalaryForLevels(levelStatistics));
+	}
+	
+	public void printStatisticsForOvertimeSalary() {
+		read(() -> {
+			printStatistics(overtimeSalaryStatistics);
+			return null;
+		});
+	}
+	
 	public Map<String, Integer> ticketsDoneByLevel() {
-		return employees.stream().filter(i -> i.getTicketsCount() != -1).collect(Collectors.groupingBy(
-				Employee::getLevel,
-				Collectors.summingInt(Employee::getTicketsCount)
-				
-		));
+		return read(() -> ticketsDoneByLevel(levelStatistics));
+	}
+	
+	public Map<String, Long> getOvertimeCentsForLevels() {
+		return read(() -> ledger.getOvertimeCentsByLevel());
+	}
+	
+	public Map<String, Long> getSalaryCentsByLevel() {
+		return read(() -> ledger.getSalaryCentsByLevel());
+	}
+	
+	public long getTotalBonusCents() {
+		return read(() -> ledger.getTotalBonusCents());
 	}
 	
 	public Collection<Employee> getFirstNEmployeesByBonus(int n) {
-		return employees.stream().sorted(Comparator.comparingDouble(Employee::getBonus).reversed()).limit(n).collect(Collectors.toList());
+		return read(() -> firstNEmployeesByBonus(n));
+	}
+	
+	private Collection<Employee> firstNEmployeesByBonus(int n) {
+		if (n <= 0) {
+			return new ArrayList<>();
+		}
+		// indices of the best n so far, worst on top; equal bonuses keep list order like a stable sort
+		Comparator<Integer> bestFirst = Comparator.<Integer>comparingDouble(i -> employees.get(i).getBonus()).reversed()
+				.thenComparingInt(i -> i);
+		PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, Math.min(n, employees.size())), bestFirst.reversed());
+		for (int i = 0; i < employees.size(); i++) {
+			if (top.size() < n) {
+				top.add(i);
+			} else if (bestFirst.compare(i, top.peek()) < 0) {
+				top.poll();
+				top.add(i);
+			}
+		}
+		List<Integer> indices = new ArrayList<>(top);
+		indices.sort(bestFirst);
+		return indices.stream().map(employees::get).collect(Collectors.toList());
 	}
 }
 
@@ -343,6 +1366,30 @@ public class PayrollSystemTest2 {
 			case 5: //Testing getFirstNEmployeesByBonus (int n)
 				ps.getFirstNEmployeesByBonus(Integer.parseInt(sc.nextLine())).forEach(System.out::println);
 				break;
+			case 6: //Testing saveSnapshot and loadSnapshot
+				try {
+					Path path = Files.createTempFile("payroll", ".snapshot");
+					path.toFile().deleteOnExit();
+					ps.saveSnapshot(path);
+					PayrollSystem loaded = new PayrollSystem(hourlyRateByLevel, ticketRateByLevel);
+					loaded.loadSnapshot(path);
+					System.out.println("Same employees: " + loaded.employees.toString().equals(ps.employees.toString()));
+					System.out.println("Same overtime salaries: " + loaded.getOvertimeSalaryForLevels().equals(ps.getOvertimeSalaryForLevels()));
+					System.out.println("Same tickets: " + loaded.ticketsDoneByLevel().equals(ps.ticketsDoneByLevel()));
+					System.out.println("Same totals: " + (loaded.getSalaryCentsByLevel().equals(ps.getSalaryCentsByLevel())
+							&& loaded.getTotalBonusCents() == ps.getTotalBonusCents()));
+					System.out.println("Same bonus ranking: " + loaded.getFirstNEmployeesByBonus(10).toString()
+							.equals(ps.getFirstNEmployeesByBonus(10).toString()));
+					loaded.printStatisticsForOvertimeSalary();
+					try {
+						PayrollSnapshot.write(path, List.of(new HourlyEmployee("id", "L".repeat(70000), 10, 40)));
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				break;
 		}
 		
 	}
@@ -3,7 +3,6 @@ package shapes;
 import java.io.*;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
 
 class InvalidDimensionException extends Exception {
 	public InvalidDimensionException() {
@@ -23,6 +22,8 @@ abstract class Shape {
 	String type;
 	final static double PI = Math.PI;
 	static boolean scaled;
+	private double area;
+	private boolean areaCached;
 	
 	public Shape(String type, String id, double dimension) { // 1 = круг -- 2 = квадрат -- 3 = правоаголник
 		this.id = id;
@@ -39,13 +40,27 @@ abstract class Shape {
 		return id;
 	}
 	
-	abstract public double getArea();
+	public double getArea() {
+		if (! areaCached) {
+			area = computeArea();
+			areaCached = true;
+		}
+		return area;
+	}
+	
+	abstract double computeArea();
 	
 	abstract public double getPerimeter();
 	
 	abstract public String toString();
 	
-	abstract public void scale(double scale);
+	public void scale(double scale) {
+		scaleDimensions(scale);
+		areaCached = false;
+		scaled = true;
+	}
+	
+	abstract void scaleDimensions(double scale);
 }
 
 class Circle extends Shape {
@@ -55,7 +70,7 @@ class Circle extends Shape {
 	}
 	
 	@Override
-	public double getArea() {
+	double computeArea() {
 		return PI * (dimension * dimension);
 	}
 	
@@ -70,9 +85,8 @@ class Circle extends Shape {
 	}
 	
 	@Override
-	public void scale(double scale) {
+	void scaleDimensions(double scale) {
 		this.dimension *= scale;
-		scaled = true;
 	}
 }
 
@@ -83,8 +97,8 @@ class Square extends Shape {
 	}
 	
 	@Override
-	public double getArea() {
-		return Math.pow(dimension, 2);
+	double computeArea() {
+		return dimension * dimension;
 	}
 	
 	@Override
@@ -98,10 +112,8 @@ class Square extends Shape {
 	}
 	
 	@Override
-	public void scale(double scale) {
+	void scaleDimensions(double scale) {
 		this.dimension *= scale;
-		scaled = true;
-		
 	}
 }
 
@@ -114,9 +126,13 @@ class Rectangle extends Shape {
 		this.dimension2 = dimension2;
 	}
 	
+	public double getDimension2() {
+		return dimension2;
+	}
+	
 	
 	@Override
-	public double getArea() {
+	double computeArea() {
 		return dimension * dimension2;
 	}
 	
@@ -131,18 +147,203 @@ class Rectangle extends Shape {
 	}
 	
 	@Override
-	public void scale(double scale) {
+	void scaleDimensions(double scale) {
 		this.dimension *= scale;
 		this.dimension2 *= scale;
-		scaled = true;
+	}
+}
+
+class UserShapes {
+	static final Comparator<Shape> BY_PERIMETER = Comparator.comparingDouble(Shape::getPerimeter).thenComparing(Shape::getId);
+	
+	final List<Shape> all;
+	TreeSet<Shape> byPerimeter;
+	private double areaSum;
+	private double perimeterSum;
+	private boolean totalsValid;
+	
+	public UserShapes() {
+		all = new ArrayList<>();
+		byPerimeter = new TreeSet<>(BY_PERIMETER);
+	}
+	
+	public void add(Shape shape) {
+		all.add(shape);
+		if (byPerimeter.add(shape)) {
+			totalsValid = false;
+		}
+	}
+	
+	// perimeters change, so the ordered view is rebuilt from this user's shapes only
+	public void scale(double scale) {
+		all.forEach(shape -> shape.scale(scale));
+		rebuild();
+	}
+	
+	// follows a stable area sort of the whole canvas, so equal perimeters keep the same winner
+	public void sortByArea() {
+		all.sort(Comparator.comparingDouble(Shape::getArea));
+		rebuild();
+	}
+	
+	private void rebuild() {
+		byPerimeter = new TreeSet<>(BY_PERIMETER);
+		byPerimeter.addAll(all);
+		totalsValid = false;
+	}
+	
+	public int size() {
+		return byPerimeter.size();
+	}
+	
+	public double getAreaSum() {
+		updateTotals();
+		return areaSum;
+	}
+	
+	public double getPerimeterSum() {
+		updateTotals();
+		return perimeterSum;
+	}
+	
+	private void updateTotals() {
+		if (! totalsValid) {
+			areaSum = byPerimeter.stream().mapToDouble(Shape::getArea).sum();
+			perimeterSum = byPerimeter.stream().mapToDouble(Shape::getPerimeter).sum();
+			totalsValid = true;
+		}
+	}
+}
+
+// circles and squares store their side twice, so every type shares one area and one perimeter formula
+class ShapeColumns {
+	static final byte CIRCLE = 0;
+	static final byte SQUARE = 1;
+	static final byte RECTANGLE = 2;
+	private static final double[] AREA_FACTOR = {Shape.PI, 1, 1};
+	private static final double[] PERIMETER_FACTOR = {Shape.PI, 2, 2};
+	
+	byte[] types;
+	double[] dimensions;
+	double[] dimensions2;
+	int[] users;
+	int size;
+	final List<String> userIds;
+	final Map<String, Integer> userCodes;
+	
+	public ShapeColumns(int capacity) {
+		capacity = Math.max(capacity, 16);
+		types = new byte[capacity];
+		dimensions = new double[capacity];
+		dimensions2 = new double[capacity];
+		users = new int[capacity];
+		userIds = new ArrayList<>();
+		userCodes = new HashMap<>();
+	}
+	
+	public static ShapeColumns of(List<Shape> shapes) {
+		ShapeColumns columns = new ShapeColumns(shapes.size());
+		for (Shape shape : shapes) {
+			if (shape instanceof Rectangle) {
+				columns.add(RECTANGLE, shape.getId(), shape.dimension, ((Rectangle) shape).getDimension2());
+			} else if (shape instanceof Circle) {
+				columns.add(CIRCLE, shape.getId(), shape.dimension, shape.dimension);
+			} else {
+				columns.add(SQUARE, shape.getId(), shape.dimension, shape.dimension);
+			}
+		}
+		return columns;
+	}
+	
+	public void add(byte type, String id, double dimension, double dimension2) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = Arrays.copyOf(types, capacity);
+			dimensions = Arrays.copyOf(dimensions, capacity);
+			dimensions2 = Arrays.copyOf(dimensions2, capacity);
+			users = Arrays.copyOf(users, capacity);
+		}
+		types[size] = type;
+		dimensions[size] = dimension;
+		dimensions2[size] = dimension2;
+		users[size] = userCode(id);
+		size++;
+	}
+	
+	private int userCode(String id) {
+		Integer code = userCodes.get(id);
+		if (code == null) {
+			code = userIds.size();
+			userIds.add(id);
+			userCodes.put(id, code);
+		}
+		return code;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public double[] areas() {
+		double[] areas = new double[size];
+		for (int i = 0; i < size; i++) {
+			areas[i] = AREA_FACTOR[types[i]] * (dimensions[i] * dimensions2[i]);
+		}
+		return areas;
+	}
+	
+	public double[] perimeters() {
+		double[] perimeters = new double[size];
+		for (int i = 0; i < size; i++) {
+			perimeters[i] = PERIMETER_FACTOR[types[i]] * (dimensions2[i] + dimensions[i]);
+		}
+		return perimeters;
+	}
+	
+	public void scaleShapes(String id, double scale) {
+		Integer code = userCodes.get(id);
+		if (code == null) {
+			return;
+		}
+		int user = code;
+		for (int i = 0; i < size; i++) {
+			if (users[i] == user) {
+				dimensions[i] *= scale;
+				dimensions2[i] *= scale;
+			}
+		}
+	}
+	
+	public DoubleSummaryStatistics areaStatistics() {
+		DoubleSummaryStatistics dss = new DoubleSummaryStatistics();
+		for (double area : areas()) {
+			dss.accept(area);
+		}
+		return dss;
+	}
+	
+	public void statistics(OutputStream os) {
+		PrintWriter pw = new PrintWriter(os);
+		DoubleSummaryStatistics dss = areaStatistics();
+		pw.print(String.format("count: %d\nsum: %.2f\nmin: %.2f\naverage: %.2f\nmax: %.2f", dss.getCount(), dss.getSum(), dss.getMin(), dss.getAverage(), dss.getMax()));
+		pw.flush();
 	}
 }
 
 class Canvas {
 	List<Shape> shapes;
+	Map<String, UserShapes> shapesByUser;
+	boolean sorted;
 	
 	public Canvas() {
 		shapes = new ArrayList<>();
+		shapesByUser = new HashMap<>();
+	}
+	
+	private void addShape(Shape shape) {
+		shapes.add(shape);
+		shapesByUser.computeIfAbsent(shape.getId(), id -> new UserShapes()).add(shape);
+		sorted = false;
 	}
 	
 	public void readShapes(InputStream is) throws InvalidDimensionException {
@@ -152,56 +353,50 @@ class Canvas {
 		while (sc.hasNextLine()) {
 			String line = sc.nextLine();
 			try {
-				shapes.add(ShapeFactory.createShape(line));
+				addShape(ShapeFactory.createShape(line));
 			} catch (InvalidIDException e) {
 				System.out.println(e.getMessage());
 			}
 		}
 	}
 	
+	// stable like the bubble sort it replaces, so shapes with equal areas keep their order
 	public void sortList(List<Shape> shapes) {
-		for (int i = 0; i < shapes.size() - 1; i++) {
-			for (int j = 0; j < shapes.size() - i - 1; j++) {
-				if (shapes.get(j).getArea() > shapes.get(j + 1).getArea()) {
-					Shape tmp = shapes.get(j);
-					shapes.set(j, shapes.get(j + 1));
-					shapes.set(j + 1, tmp);
-				}
-			}
+		shapes.sort(Comparator.comparingDouble(Shape::getArea));
+		if (shapes == this.shapes) {
+			shapesByUser.values().forEach(UserShapes::sortByArea);
 		}
 	}
 	
 	public void printAllShapes(OutputStream os) {
 		PrintWriter pw = new PrintWriter(os);
 		
-		if (Shape.scaled) {
-			shapes.forEach(pw::println);
-		} else {
+		if (! Shape.scaled && ! sorted) {
 			sortList(shapes);
-			shapes.forEach(pw::println);
+			sorted = true;
 		}
+		shapes.forEach(pw::println);
 		pw.flush();
 	}
 	
 	public void scaleShapes(String id, double scale) {
-		shapes.stream().filter(shape -> shape.getId().equals(id)).forEach(shape -> shape.scale(scale));
+		UserShapes userShapes = shapesByUser.get(id);
+		if (userShapes != null) {
+			userShapes.scale(scale);
+			sorted = false;
+		}
 	}
 	
 	public void printByUserId(OutputStream os) {
 		PrintWriter pw = new PrintWriter(os);
 		
-		Map<String, TreeSet<Shape>> map = shapes.stream().collect(Collectors.groupingBy(
-				Shape::getId,
-				Collectors.toCollection(() -> new TreeSet<>(Comparator.comparingDouble(Shape::getPerimeter).thenComparing(Shape::getId)))
-		));
-		
-		Comparator<Map.Entry<String, TreeSet<Shape>>> comparator = Comparator.comparing(entry -> entry.getValue().size());
+		Comparator<Map.Entry<String, UserShapes>> comparator = Comparator.comparing(entry -> entry.getValue().size());
 		
-		map.entrySet().stream()
-				.sorted(comparator.reversed().thenComparing(entry -> entry.getValue().stream().mapToDouble(Shape::getArea).sum()))
+		shapesByUser.entrySet().stream()
+				.sorted(comparator.reversed().thenComparingDouble(entry -> entry.getValue().getAreaSum()))
 				.forEach(entry -> {
 					pw.println("Shapes of user: " + entry.getKey());
-					entry.getValue().forEach(pw::println);
+					entry.getValue().byPerimeter.forEach(pw::println);
 				});
 		pw.flush();
 	}
@@ -213,6 +408,10 @@ class Canvas {
 		pw.flush();
 		
 	}
+	
+	public ShapeColumns toColumns() {
+		return ShapeColumns.of(shapes);
+	}
 }
 
 class ShapeFactory {